@@ -1,54 +1,259 @@
 package model;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Represents an AutoPilot class for Tetris.
  * Based on the Tetris assignment in the Nifty Assignments Database, authored by Nick Parlante
+ *
+ * The pilot tries every rotation of the piece dropped in every column, scores each resulting
+ * board as evaluateBoard() would (all at once, with a BatchEvaluator), and steers the piece
+ * towards the best one.
+ * Boards are scored as a weighted sum of features (see the feature constants below); the
+ * features come from the board's column heights and row bitmasks, a word at a time,
+ * rather than from a scan of every cell.
  */
 public class AutoPilot implements TetrisPilot, Serializable {
 
+    //board features, in the order of the weights
+    public static final int AGGREGATE_HEIGHT = 0; //sum of the column heights
+    public static final int HOLES = 1; //empty blocks below the top of their column
+    public static final int BUMPINESS = 2; //sum of the height differences of neighbouring columns
+    public static final int WELLS = 3; //sum of the depths of columns lower than both neighbours
+    public static final int ROW_TRANSITIONS = 4; //filled/empty changes along each row, walls count as filled
+    public static final int COLUMN_TRANSITIONS = 5; //filled/empty changes up each column, the floor counts as filled
+    public static final int ROWS_CLEARED = 6; //rows cleared by the placement
+    public static final int FEATURE_COUNT = 7;
+
+    //a bigger score is a worse board, so clearing rows has a negative weight
+    public static final double[] DEFAULT_WEIGHTS = {0.60, 0.40, 0.18, 0.02, 0.02, 0.02, -0.50};
+
+    private final double[] weights; //weight of each feature
+    private final double[] features = new double[FEATURE_COUNT]; //scratch for evaluateBoard()
+    private transient EvaluationCache cache; //scores of boards already evaluated, or null
+    private transient DropResults drops; //scratch for planMoves(), created on first use
+    private transient BatchEvaluator batch;
+    private transient double[] scores;
+
+    /**
+     * Constructor for a pilot with the default weights
+     */
+    public AutoPilot() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Constructor for a pilot with the given weights
+     *
+     * @param weights weight of each feature, indexed by the feature constants
+     */
+    public AutoPilot(double[] weights) {
+        if (weights.length != FEATURE_COUNT)
+            throw new IllegalArgumentException("Expected " + FEATURE_COUNT + " weights, not " + weights.length);
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Reads weights written by saveWeights(): one number per line, in the order of the feature
+     * constants. Blank lines and lines starting with # are skipped.
+     *
+     * @param file the weights file
+     * @return the weights, ready for the constructor
+     * @throws IOException if the file can't be read or doesn't hold FEATURE_COUNT numbers
+     */
+    public static double[] loadWeights(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) lines.add(line);
+        }
+        if (lines.size() != FEATURE_COUNT)
+            throw new IOException("Expected " + FEATURE_COUNT + " weights in " + file + ", not " + lines.size());
+        double[] weights = new double[FEATURE_COUNT];
+        try {
+            for (int i = 0; i < FEATURE_COUNT; i++) weights[i] = Double.parseDouble(lines.get(i));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad weight in " + file, e);
+        }
+        return weights;
+    }
+
+    /**
+     * Writes weights in the format loadWeights() reads.
+     *
+     * @param weights weight of each feature, indexed by the feature constants
+     * @param file    the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void saveWeights(double[] weights, File file) throws IOException {
+        new AutoPilot(weights); //check the weights
+        List<String> lines = new ArrayList<>();
+        lines.add("# AutoPilot weights, one per line: aggregate height, holes, bumpiness, wells,");
+        lines.add("# row transitions, column transitions, rows cleared");
+        for (double weight : weights) lines.add(Double.toString(weight));
+        Files.write(file.toPath(), lines);
+    }
+
+    /**
+     * Remember board scores in the given cache, which may be shared with other pilots using the
+     * same weights; boards of different sizes are kept apart. Only the cache may be shared between
+     * threads: a pilot keeps scratch arrays of its own, so each thread needs its own AutoPilot.
+     *
+     * @param cache the cache to use, or null to evaluate every board
+     */
+    public void setCache(EvaluationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Getter for the weights
+     *
+     * @return a copy of the weight of each feature
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
     /**
      * Given a piece and a board, return a move object that represents
      * the best move for that piece. Note that if the move returned is
      * invalid or impossible, it won't be played!
+     * The board must be committed, i.e. must not contain the piece itself.
      *
      * @param board    The current board configuration
      * @param piece    The current piece
      * @param currentX  Where the current piece is currently located (X position)
      * @param currentY  Where the current piece is currently located (Y position)
-     * @return The best move (Rotate, Left, or Right), based on an assessment of "good" moves
+     * @return The best move (Rotate, Left, Right or Drop), based on an assessment of "good" moves
      */
     @Override
     public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, currentX, currentY).getMove(0);
+    }
+
+    /**
+     * Searches every drop of the piece once and returns the moves that steer it to the best one.
+     * The board must be committed, i.e. must not contain the piece itself.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX Where the current piece is currently located (X position)
+     * @param currentY Where the current piece is currently located (Y position)
+     * @return The moves to the best drop
+     */
+    @Override
+    public MovePlan planMoves(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        //search the rotations from the root of the ring, so the choice doesn't depend on the current rotation
+        TetrisPiece root = piece;
+        while (root.getRotationIndex() != 0) root = root.fastRotation();
 
-        //The current strategy is to pick a random move from among the options: Left, Right, and Rotate
-        //Why not try to improve on this!
-        int index = (int) Math.round(Math.random()*(TetrisModel.MoveType.values().length - 3));
-        return TetrisModel.MoveType.values()[index];
+        //drop every rotation in every column without touching the board, then score the drops as a batch
+        if (drops == null) {
+            drops = new DropResults(board.getWidth());
+            batch = new BatchEvaluator(weights);
+            scores = new double[0];
+        }
+        int count = board.dropAll(root, drops);
+        if (scores.length < count) scores = new double[count];
+        batch.evaluate(board, drops, scores);
 
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (best < 0 || scores[i] < scores[best]) best = i;
+        }
+        if (best < 0) { //nowhere to go, so get it over with
+            return MovePlan.of(TetrisModel.MoveType.DROP, piece, currentX);
+        }
+        return MovePlan.toward(piece, currentX, drops.getPiece(best), drops.getX(best));
     }
 
     /**
      * Given a board, calculate a number that evaluates the board's "goodness".
-     * A bigger number indicates a "worse" board.  You might want to
-     * use this function to facilitate a "look ahead" at the tetris.boards you
-     * can realize from your current position. If a move drives
-     * you in the direction of a "good" board, maybe that's the right one to choose!
-     * What are some metrics you might use to evaluate "goodness"?  Well,
-     * you might count the number of "holes" buried beneath lines on the board.
-     * A lot of holes indicates a pretty bad board.
-     *
-     * Note that if you alter the state of the board as you are assessing them, you
-     * can always use your "undo" function to reset the board.  Note also that any implementation
-     * will get you full marks for the exercise, so don't stress about it too much!!  Have fun
-     * with it, if the task appeals :).
+     * A bigger number indicates a "worse" board.
      *
      * @param board  The current board configuration
      * @return  A number that evaluates the board.
      */
     public double evaluateBoard(TetrisBoard board) {
-        throw new UnsupportedOperationException(); //replace this!
+        return evaluateBoard(board, 0);
     }
 
+    /**
+     * Given a board just after a placement, calculate a number that evaluates the board's "goodness".
+     * A bigger number indicates a "worse" board.
+     *
+     * @param board   The board configuration after the placement and clearRows()
+     * @param cleared The number of rows the placement cleared
+     * @return  A number that evaluates the board.
+     */
+    public double evaluateBoard(TetrisBoard board, int cleared) {
+        //the board's own score doesn't depend on how many rows were cleared to get there, so that is what is cached
+        long key = 0;
+        double score = Double.NaN;
+        if (cache != null) {
+            //the hash only covers the filled cells, so the size goes in the key too
+            key = board.getZobristHash() ^ (board.getWidth() * 0x10000L + board.getHeight()) * 0x9E3779B97F4A7C15L;
+            score = cache.get(key);
+        }
+        if (Double.isNaN(score)) {
+            computeFeatures(board, features);
+            features[ROWS_CLEARED] = 0;
+            score = 0;
+            for (int i = 0; i < FEATURE_COUNT; i++) score += weights[i] * features[i];
+            if (cache != null) cache.put(key, score);
+        }
+        return score + weights[ROWS_CLEARED] * cleared;
+    }
 
+    /**
+     * Computes every feature of the board except ROWS_CLEARED.
+     *
+     * @param board the board to measure
+     * @param out   array of FEATURE_COUNT entries, filled in by feature constant
+     */
+    public static void computeFeatures(TetrisBoard board, double[] out) {
+        int width = board.getWidth();
+        int words = board.getWordsPerRow();
+
+        //column features straight from the column heights
+        int aggregate = 0, bumpiness = 0, wells = 0;
+        for (int x = 0; x < width; x++) {
+            int h = board.getColumnHeight(x);
+            aggregate += h;
+            int left = (x == 0) ? Integer.MAX_VALUE : board.getColumnHeight(x - 1);
+            int right = (x == width - 1) ? Integer.MAX_VALUE : board.getColumnHeight(x + 1);
+            if (x > 0) bumpiness += Math.abs(h - left);
+            int lower = Math.min(left, right); //the lower neighbour, or a wall
+            if (lower != Integer.MAX_VALUE && lower > h) wells += lower - h;
+        }
+
+        //row features from the row bitmasks, below the tallest column only
+        int filled = 0, rowTransitions = 0, columnTransitions = 0;
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            long carry = 1; //the left wall is filled
+            for (int w = 0; w < words; w++) {
+                int bits = Math.min(Long.SIZE, width - (w << 6));
+                long mask = (bits == Long.SIZE) ? -1L : (1L << bits) - 1;
+                long row = board.getRowWord(y, w);
+                long below = (y == 0) ? mask : board.getRowWord(y - 1, w); //the floor is filled
+                filled += Long.bitCount(row);
+                //compare each block with the one to its left
+                rowTransitions += Long.bitCount((row ^ ((row << 1) | carry)) & mask);
+                columnTransitions += Long.bitCount(row ^ below);
+                carry = (row >>> (bits - 1)) & 1;
+            }
+            if (carry == 0) rowTransitions++; //the right wall is filled
+        }
+
+        out[AGGREGATE_HEIGHT] = aggregate;
+        out[HOLES] = aggregate - filled;
+        out[BUMPINESS] = bumpiness;
+        out[WELLS] = wells;
+        out[ROW_TRANSITIONS] = rowTransitions;
+        out[COLUMN_TRANSITIONS] = columnTransitions;
+    }
 }
@@ -0,0 +1,63 @@
+package model;
+
+/** Deals the pieces in shuffled "bags" holding one of each piece (the 7-bag of modern Tetris
+ * for the standard pieces), so no piece is ever more than one bag away and long droughts can't happen.
+ */
+public class BagPieceGenerator implements PieceGenerator {
+
+    private final TetrisPiece[] pieces; //pieces to choose from
+    private final int[] bag; //piece numbers in the current bag, dealt from the front
+    private int dealt; //pieces of the current bag already dealt
+    private final SplitMix64 random; //advanced a step per swap
+
+    /**
+     * Constructor for a generator of the given pieces
+     *
+     * @param pieces pieces to put in each bag
+     * @param seed   seed for the stream
+     */
+    public BagPieceGenerator(TetrisPiece[] pieces, long seed) {
+        if (pieces.length == 0) throw new IllegalArgumentException("No pieces to choose from");
+        this.pieces = pieces;
+        this.bag = new int[pieces.length];
+        this.random = new SplitMix64(seed);
+        dealt = bag.length; //start with a fresh bag
+    }
+
+    /**
+     * Constructor for a copy of another generator, part way through the same bag
+     */
+    private BagPieceGenerator(BagPieceGenerator other) {
+        this.pieces = other.pieces;
+        this.bag = other.bag.clone();
+        this.random = other.random.copy();
+        this.dealt = other.dealt;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+        dealt = bag.length; //start with a fresh bag
+    }
+
+    @Override
+    public TetrisPiece next() {
+        if (dealt == bag.length) {
+            //Fisher-Yates shuffle of a full bag
+            for (int i = 0; i < bag.length; i++) bag[i] = i;
+            for (int i = bag.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = bag[i];
+                bag[i] = bag[j];
+                bag[j] = t;
+            }
+            dealt = 0;
+        }
+        return pieces[bag[dealt++]];
+    }
+
+    @Override
+    public PieceGenerator copy() {
+        return new BagPieceGenerator(this);
+    }
+}
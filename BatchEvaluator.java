@@ -0,0 +1,412 @@
+package model;
+
+import java.util.Arrays;
+
+/** Scores a whole batch of candidate boards at once, with the same weights and features as
+ * AutoPilot.evaluateBoard(), so the scores (and the order of any ties) are exactly the same.
+ *
+ * The boards are given in structure-of-arrays form: one array per feature input, with the
+ * column heights of every board in one array, column by column (the height of column x of board i
+ * is at x * count + i). Each feature is then a loop over the boards of simple arithmetic on
+ * neighbouring array entries, with no branches or calls, which the JIT compiles to SIMD
+ * instructions where the CPU has them; on others the same loops run as ordinary scalar code.
+ *
+ * The results of TetrisBoard.dropAll() can be scored directly, without building those arrays:
+ * every feature is worked out by patching the board's own totals. The column features are
+ * patched for the columns the drop changes and their neighbours, the filled blocks from the
+ * piece size and the rows cleared, and the transitions for the rows the piece changes, so the
+ * cost of a drop grows with the piece and the occupied rows, not with the board's width.
+ * No board is ever modified.
+ *
+ * An evaluator keeps scratch arrays, so it must only be used by one thread at a time.
+ */
+public class BatchEvaluator {
+
+    private final double[] weights; //weight of each feature, as for AutoPilot
+
+    //scratch, one entry per board, grown as needed
+    private int[] filled = new int[0];
+    private int[] rowTransitions = new int[0];
+    private int[] columnTransitions = new int[0];
+    private int[] cleared = new int[0];
+    private int[] aggregate = new int[0];
+    private int[] bumpiness = new int[0];
+    private int[] wells = new int[0];
+
+    //scratch for the columns of the board the drops were made on, one entry per column
+    private int[] base = new int[0]; //column heights
+    private int[] steps = new int[0]; //height difference with the column to the left
+    private int[] depths = new int[0]; //well depths
+    private int[] window = new int[0]; //column heights of one drop, around the columns it changes
+
+    //scratch for the rows of the board the drops were made on
+    private int[] rowPrefix = new int[1]; //row transitions of rows below y, by y
+    private int[] columnPrefix = new int[1]; //column transitions of rows below y, by y
+    private long[] previous = new long[0]; //the row below the one being patched
+    private long[] current = new long[0]; //the row being patched
+    private long[] original = new long[0]; //the row being patched, before the drop
+    private long[] originalBelow = new long[0]; //the row below it, before the drop
+
+    /**
+     * Constructor for an evaluator with the default weights
+     */
+    public BatchEvaluator() {
+        this(AutoPilot.DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Constructor for an evaluator with the given weights
+     *
+     * @param weights weight of each feature, indexed by the AutoPilot feature constants
+     */
+    public BatchEvaluator(double[] weights) {
+        new AutoPilot(weights); //check the weights
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Scores every drop found by dropAll(). The board must be the one dropAll() was called on,
+     * unchanged since.
+     *
+     * @param board  the board the drops were made on
+     * @param drops  the drops
+     * @param scores filled in with the score of each drop, by candidate number
+     * @return number of drops scored
+     */
+    public int evaluate(TetrisBoard board, DropResults drops, double[] scores) {
+        int count = drops.getCount();
+        int width = board.getWidth();
+        if (drops.getWidth() != width) throw new IllegalArgumentException("Drops are not for this board");
+        if (scores.length < count) throw new IllegalArgumentException("Too few scores: " + scores.length);
+        ensureCapacity(count, width, board.getHeight(), board.getWordsPerRow());
+
+        int baseFilled = measureRows(board);
+        //the column features of the board itself, column by column
+        int baseAggregate = 0, baseBumpiness = 0, baseWells = 0;
+        for (int x = 0; x < width; x++) {
+            base[x] = drops.getBaseHeight(x);
+            steps[x] = (x == 0) ? 0 : Math.abs(base[x] - base[x - 1]);
+            baseAggregate += base[x];
+            baseBumpiness += steps[x];
+        }
+        for (int x = 0; x < width; x++) {
+            depths[x] = wellDepth(base, 0, x, width);
+            baseWells += depths[x];
+        }
+
+        int[] dropHeights = drops.getHeights();
+        for (int i = 0; i < count; i++) {
+            //the heights the drop changes, with two columns of the board's own on either side
+            int first = drops.getFirstColumn(i), end = first + drops.getColumnCount(i);
+            int lo = Math.max(first - 2, 0), hi = Math.min(end + 2, width);
+            int offset = drops.getOffset(i) - first;
+            for (int x = lo; x < first; x++) window[x - lo] = base[x];
+            for (int x = first; x < end; x++) window[x - lo] = dropHeights[offset + x];
+            for (int x = end; x < hi; x++) window[x - lo] = base[x];
+
+            //the changed columns only ever grow, unless rows were cleared and all of them are stored
+            int top = (end - first < width) ? board.getMaxHeight() : 0;
+            int aggregateSum = baseAggregate, bumpinessSum = baseBumpiness, wellSum = baseWells;
+            for (int x = first; x < end; x++) {
+                int h = window[x - lo];
+                aggregateSum += h - base[x];
+                if (h > top) top = h;
+            }
+            for (int x = Math.max(first, 1); x <= end && x < width; x++) {
+                bumpinessSum += Math.abs(window[x - lo] - window[x - 1 - lo]) - steps[x];
+            }
+            for (int x = Math.max(first - 1, 0); x <= end && x < width; x++) {
+                wellSum += wellDepth(window, lo, x, width) - depths[x];
+            }
+            aggregate[i] = aggregateSum;
+            bumpiness[i] = bumpinessSum;
+            wells[i] = wellSum;
+
+            TetrisPiece piece = drops.getPiece(i);
+            int rows = drops.getRowsCleared(i);
+            cleared[i] = rows;
+            filled[i] = baseFilled + piece.getTable().getCellCount(piece.getRotationIndex()) - rows * width;
+            if (rows == 0) patchTransitionsLocally(board, piece, drops.getX(i), drops.getY(i), i);
+            else patchTransitions(board, piece, drops.getX(i), drops.getY(i), top, i);
+        }
+        sum(count, filled, rowTransitions, columnTransitions, cleared, scores);
+        return count;
+    }
+
+    /**
+     * Returns how far column x lies below its lower neighbour, given the heights of the columns
+     * from lo on; a wall counts as higher than anything.
+     */
+    private static int wellDepth(int[] heights, int lo, int x, int width) {
+        int left = (x == 0) ? Integer.MAX_VALUE : heights[x - 1 - lo];
+        int right = (x == width - 1) ? Integer.MAX_VALUE : heights[x + 1 - lo];
+        int lower = Math.min(left, right);
+        return (lower == Integer.MAX_VALUE) ? 0 : Math.max(lower - heights[x - lo], 0);
+    }
+
+    /**
+     * Scores count boards given in structure-of-arrays form.
+     *
+     * @param count             number of boards
+     * @param width             board width
+     * @param heights           column heights, column by column: column x of board i is at x * count + i
+     * @param filled            number of filled blocks of each board
+     * @param rowTransitions    row transitions of each board
+     * @param columnTransitions column transitions of each board
+     * @param cleared           rows cleared on the way to each board
+     * @param scores            filled in with the score of each board
+     */
+    public void evaluate(int count, int width, int[] heights, int[] filled, int[] rowTransitions,
+                         int[] columnTransitions, int[] cleared, double[] scores) {
+        if (aggregate.length < count) {
+            aggregate = new int[count];
+            bumpiness = new int[count];
+            wells = new int[count];
+        }
+        int[] aggregate = this.aggregate, bumpiness = this.bumpiness, wells = this.wells;
+        Arrays.fill(aggregate, 0, count, 0);
+        Arrays.fill(bumpiness, 0, count, 0);
+        Arrays.fill(wells, 0, count, 0);
+
+        for (int x = 0; x < width; x++) {
+            int c = x * count;
+            for (int i = 0; i < count; i++) aggregate[i] += heights[c + i];
+        }
+        for (int x = 1; x < width; x++) {
+            int c = x * count, left = c - count;
+            for (int i = 0; i < count; i++) bumpiness[i] += Math.abs(heights[c + i] - heights[left + i]);
+        }
+        //a well is as deep as its lower neighbour; a wall counts as higher than anything
+        for (int x = 1; x < width - 1; x++) {
+            int c = x * count, left = c - count, right = c + count;
+            for (int i = 0; i < count; i++) {
+                wells[i] += Math.max(Math.min(heights[left + i], heights[right + i]) - heights[c + i], 0);
+            }
+        }
+        if (width > 1) {
+            int last = (width - 1) * count, beside = last - count;
+            for (int i = 0; i < count; i++) {
+                wells[i] += Math.max(heights[count + i] - heights[i], 0)
+                        + Math.max(heights[beside + i] - heights[last + i], 0);
+            }
+        }
+
+        sum(count, filled, rowTransitions, columnTransitions, cleared, scores);
+    }
+
+    /**
+     * Weighs the features of count boards, already filled in, into their scores.
+     */
+    private void sum(int count, int[] filled, int[] rowTransitions, int[] columnTransitions, int[] cleared, double[] scores) {
+        //summed in the same order as evaluateBoard(), so the scores are identical
+        double[] w = weights;
+        for (int i = 0; i < count; i++) {
+            double score = 0;
+            score += w[AutoPilot.AGGREGATE_HEIGHT] * aggregate[i];
+            score += w[AutoPilot.HOLES] * (aggregate[i] - filled[i]);
+            score += w[AutoPilot.BUMPINESS] * bumpiness[i];
+            score += w[AutoPilot.WELLS] * wells[i];
+            score += w[AutoPilot.ROW_TRANSITIONS] * rowTransitions[i];
+            score += w[AutoPilot.COLUMN_TRANSITIONS] * columnTransitions[i];
+            scores[i] = score + w[AutoPilot.ROWS_CLEARED] * cleared[i];
+        }
+    }
+
+    private void ensureCapacity(int count, int width, int height, int words) {
+        if (base.length < width) {
+            base = new int[width];
+            steps = new int[width];
+            depths = new int[width];
+            window = new int[width];
+        }
+        if (filled.length < count) {
+            filled = new int[count];
+            rowTransitions = new int[count];
+            columnTransitions = new int[count];
+            cleared = new int[count];
+        }
+        if (aggregate.length < count) {
+            aggregate = new int[count];
+            bumpiness = new int[count];
+            wells = new int[count];
+        }
+        if (rowPrefix.length < height + 1) {
+            rowPrefix = new int[height + 1];
+            columnPrefix = new int[height + 1];
+        }
+        if (previous.length < words) {
+            previous = new long[words];
+            current = new long[words];
+            original = new long[words];
+            originalBelow = new long[words];
+        }
+    }
+
+    /**
+     * Fills in the running totals of row and column transitions of the board's rows
+     * (as AutoPilot.computeFeatures() counts them) and returns the number of filled blocks.
+     */
+    private int measureRows(TetrisBoard board) {
+        int words = board.getWordsPerRow();
+        int total = 0;
+        for (int w = 0; w < words; w++) previous[w] = wordMask(board.getWidth(), w); //the floor is filled
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            for (int w = 0; w < words; w++) {
+                current[w] = board.getRowWord(y, w);
+                total += Long.bitCount(current[w]);
+            }
+            rowPrefix[y + 1] = rowPrefix[y] + rowTransitions(current, board.getWidth(), 0, words, words);
+            columnPrefix[y + 1] = columnPrefix[y] + columnTransitions(current, previous, 0, words);
+            long[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return total;
+    }
+
+    /**
+     * Works out the transitions of board i, the board after dropping the piece at x,y and clearing
+     * any full rows, whose tallest column is top high. Below y nothing changes; the rows the piece
+     * lands in are rebuilt and measured; the rows above keep their row transitions but move down,
+     * so only the column transitions of the first of them change. Rows at or above top don't count
+     * (usually only empty rows, but clearing the rows a piece lands in can leave the top lower than y).
+     */
+    private void patchTransitions(TetrisBoard board, TetrisPiece piece, int x, int y, int top, int i) {
+        int width = board.getWidth();
+        int words = board.getWordsPerRow();
+        int oldTop = board.getMaxHeight();
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int rows = table.getHeight(p);
+        int clearedCount = cleared[i];
+
+        int below = Math.min(y, Math.min(oldTop, top)); //rows below the piece that still count
+        int rowSum = rowPrefix[below];
+        int columnSum = columnPrefix[below];
+        for (int w = 0; w < words; w++) previous[w] = (y == 0) ? wordMask(width, w) : board.getRowWord(y - 1, w);
+
+        int newY = y; //where the next surviving row ends up
+        for (int r = 0; r < rows && newY < top; r++) {
+            for (int w = 0; w < words; w++) current[w] = board.getRowWord(y + r, w);
+            int word = x >>> 6, shift = x & 63;
+            long mask = table.getRowMask(p, r);
+            current[word] |= mask << shift;
+            if (shift != 0 && word + 1 < words) current[word + 1] |= mask >>> (Long.SIZE - shift);
+            if (isFull(current, width, words)) continue; //cleared
+
+            rowSum += rowTransitions(current, width, 0, words, words);
+            columnSum += columnTransitions(current, previous, 0, words);
+            long[] swap = previous;
+            previous = current;
+            current = swap;
+            newY++;
+        }
+
+        //the rows above the piece, as far as they stay below the new top
+        int first = y + rows;
+        int end = Math.min(oldTop, top + clearedCount);
+        if (newY < top && first < end) {
+            for (int w = 0; w < words; w++) current[w] = board.getRowWord(first, w);
+            rowSum += rowPrefix[end] - rowPrefix[first];
+            columnSum += columnTransitions(current, previous, 0, words) + columnPrefix[end] - columnPrefix[first + 1];
+        }
+        rowTransitions[i] = rowSum;
+        columnTransitions[i] = columnSum;
+    }
+
+    /**
+     * Works out the transitions of board i, the board after dropping the piece at x,y, for a drop that
+     * clears no rows. Then only the words the piece lands in change, in the piece rows, so the board's
+     * own counts are patched by comparing those words (and their neighbours, for the row transitions
+     * across a word boundary) before and after the drop. Rows the piece raises the top to were not
+     * counted before; as empty rows they would have had 2 row transitions, and as many column
+     * transitions as the row below has blocks.
+     */
+    private void patchTransitionsLocally(TetrisBoard board, TetrisPiece piece, int x, int y, int i) {
+        int width = board.getWidth();
+        int words = board.getWordsPerRow();
+        int oldTop = board.getMaxHeight();
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int rows = table.getHeight(p);
+        int top = Math.max(oldTop, y + rows);
+        int first = x >>> 6, shift = x & 63;
+        int last = (x + table.getWidth(p) - 1) >>> 6; //the piece spans words first..last
+        int from = Math.max(first - 1, 0), to = Math.min(last + 2, words); //and the words beside them
+
+        int rowSum = rowPrefix[oldTop];
+        int columnSum = columnPrefix[oldTop];
+        for (int w = from; w < to; w++) {
+            originalBelow[w] = (y == 0) ? wordMask(width, w) : board.getRowWord(y - 1, w); //the floor is filled
+            previous[w] = originalBelow[w];
+        }
+        for (int r = 0; r <= rows && y + r < top; r++) {
+            int row = y + r;
+            long mask = (r < rows) ? table.getRowMask(p, r) : 0;
+            for (int w = from; w < to; w++) {
+                original[w] = board.getRowWord(row, w);
+                current[w] = original[w];
+            }
+            current[first] |= mask << shift;
+            if (shift != 0 && last > first) current[last] |= mask >>> (Long.SIZE - shift);
+
+            if (row >= oldTop) {
+                rowSum += 2;
+                columnSum += (row == 0) ? width : board.getRowWidth(row - 1);
+            }
+            if (r < rows) {
+                rowSum += rowTransitions(current, width, first, to, words) - rowTransitions(original, width, first, to, words);
+            }
+            columnSum += columnTransitions(current, previous, first, last + 1)
+                    - columnTransitions(original, originalBelow, first, last + 1);
+            long[] swap = previous;
+            previous = current;
+            current = swap;
+            swap = originalBelow;
+            originalBelow = original;
+            original = swap;
+        }
+        rowTransitions[i] = rowSum;
+        columnTransitions[i] = columnSum;
+    }
+
+    private static boolean isFull(long[] row, int width, int words) {
+        for (int w = 0; w < words; w++) {
+            if (row[w] != wordMask(width, w)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bits of word w that are inside a board of the given width.
+     */
+    private static long wordMask(int width, int w) {
+        int bits = Math.min(Long.SIZE, width - (w << 6));
+        return (bits == Long.SIZE) ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * Filled/empty changes along a row, counting both walls as filled, between the blocks of words
+     * from..to-1 and the block to the left of each; the right wall counts if to is the last word.
+     */
+    private static int rowTransitions(long[] row, int width, int from, int to, int words) {
+        int count = 0;
+        long carry = (from == 0) ? 1 : row[from - 1] >>> (Long.SIZE - 1); //the left wall is filled
+        for (int w = from; w < to; w++) {
+            int bits = Math.min(Long.SIZE, width - (w << 6));
+            count += Long.bitCount((row[w] ^ ((row[w] << 1) | carry)) & wordMask(width, w));
+            carry = (row[w] >>> (bits - 1)) & 1;
+        }
+        if (to == words && carry == 0) count++; //the right wall is filled
+        return count;
+    }
+
+    /**
+     * Filled/empty changes between words from..to-1 of a row and the row below it.
+     */
+    private static int columnTransitions(long[] row, long[] below, int from, int to) {
+        int count = 0;
+        for (int w = from; w < to; w++) count += Long.bitCount(row[w] ^ below[w]);
+        return count;
+    }
+}
@@ -0,0 +1,208 @@
+package model;
+
+import java.io.Serializable;
+
+/** A pilot that searches as deep into the preview as its time budget allows.
+ * The search goes a piece at a time: every drop of the current piece is scored, the best
+ * beamWidth boards are kept, every drop of the next preview piece is tried on each of those,
+ * the best beamWidth results are kept, and so on. The answer is the drop of the current piece
+ * that leads to the best board of the deepest level finished.
+ *
+ * Before each board is expanded the pilot checks a deadline; once it has passed, the level in
+ * progress is abandoned and the answer from the last finished level is returned. Only the first
+ * level (the same search AutoPilot does) is always finished, so a decision never takes much longer
+ * than the budget however many pieces are previewed. Boards in the beam are kept as BoardStates
+ * and expanded on a single scratch board, so a level allocates one state per kept board.
+ */
+public class BeamSearchPilot implements TetrisPilot, Serializable {
+
+    private final AutoPilot evaluator; //scores the boards
+    private final int beamWidth; //boards kept at each level
+    private final long budgetNanos; //time allowed per decision
+
+    private transient TetrisBoard scratch; //reused for expanding every board of the beam
+    private int lastDepth; //levels finished by the last decision
+
+    //the beam: the boards kept at the current level
+    private final BoardState[] states;
+    private final int[] cleared; //rows cleared on the way to each board
+    private final TetrisPiece[] rootPiece; //the drop of the current piece each board came from
+    private final int[] rootX;
+
+    //the best children found so far at the next level, sorted by score
+    private final double[] bestScores;
+    private final int[] bestParents;
+    private final TetrisPiece[] bestPieces;
+    private final int[] bestXs;
+    private final int[] bestCleared;
+    private int bestCount;
+
+    /**
+     * Constructor for a pilot with the default weights, a beam of 8 boards and 20 ms per decision
+     */
+    public BeamSearchPilot() {
+        this(AutoPilot.DEFAULT_WEIGHTS, 8, 20_000_000L);
+    }
+
+    /**
+     * Constructor for a pilot
+     *
+     * @param weights     feature weights, as for AutoPilot
+     * @param beamWidth   boards kept at each level of the search
+     * @param budgetNanos time allowed per decision, in nanoseconds
+     */
+    public BeamSearchPilot(double[] weights, int beamWidth, long budgetNanos) {
+        if (beamWidth < 1) throw new IllegalArgumentException("Bad beam width: " + beamWidth);
+        this.evaluator = new AutoPilot(weights);
+        this.beamWidth = beamWidth;
+        this.budgetNanos = budgetNanos;
+        states = new BoardState[beamWidth];
+        cleared = new int[beamWidth];
+        rootPiece = new TetrisPiece[beamWidth];
+        rootX = new int[beamWidth];
+        bestScores = new double[beamWidth];
+        bestParents = new int[beamWidth];
+        bestPieces = new TetrisPiece[beamWidth];
+        bestXs = new int[beamWidth];
+        bestCleared = new int[beamWidth];
+    }
+
+    /**
+     * Returns the number of pieces the last decision searched through, counting the current piece.
+     *
+     * @return levels finished by the last decision
+     */
+    public int getLastDepth() {
+        return lastDepth;
+    }
+
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, currentX, currentY).getMove(0);
+    }
+
+    @Override
+    public MovePlan planMoves(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, new TetrisPiece[0], currentX, currentY);
+    }
+
+    /**
+     * Searches the drops of the piece and of as many preview pieces as time allows, and returns
+     * the moves that steer the piece to the best drop found.
+     * The board must be committed, i.e. must not contain the piece itself.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param preview  The pieces that come after the current one, next one first
+     * @param currentX Where the current piece is currently located (X position)
+     * @param currentY Where the current piece is currently located (Y position)
+     * @return The moves to the best drop
+     */
+    @Override
+    public synchronized MovePlan planMoves(TetrisBoard board, TetrisPiece piece, TetrisPiece[] preview, int currentX, int currentY) {
+        long deadline = System.nanoTime() + budgetNanos;
+        if (scratch == null || scratch.getWidth() != board.getWidth() || scratch.getHeight() != board.getHeight()) {
+            scratch = new TetrisBoard(board.getWidth(), board.getHeight());
+        }
+
+        //the first level: every drop of the current piece, from the root of its ring
+        TetrisPiece root = piece;
+        while (root.getRotationIndex() != 0) root = root.fastRotation();
+        BoardState start = board.toState();
+        start.loadInto(scratch);
+        bestCount = 0;
+        expand(-1, root, 0);
+        if (bestCount == 0) { //nowhere to go, so get it over with
+            lastDepth = 0;
+            return MovePlan.of(TetrisModel.MoveType.DROP, piece, currentX);
+        }
+        int size = keep(start);
+        lastDepth = 1;
+
+        //then one preview piece per level, for as long as there is time
+        for (int level = 0; level < preview.length; level++) {
+            bestCount = 0;
+            boolean finished = true;
+            for (int b = 0; b < size; b++) {
+                if (System.nanoTime() - deadline > 0) {
+                    finished = false;
+                    break;
+                }
+                states[b].loadInto(scratch);
+                expand(b, preview[level], cleared[b]);
+            }
+            if (!finished || bestCount == 0) break;
+            size = keep(null);
+            lastDepth++;
+        }
+        //the beam is sorted, so its first board is the best of the deepest finished level
+        return MovePlan.toward(piece, currentX, rootPiece[0], rootX[0]);
+    }
+
+    /**
+     * Tries every drop of the piece on the scratch board (which holds beam board parent),
+     * offering each result to the sorted list of best children.
+     */
+    private void expand(int parent, TetrisPiece piece, int clearedSoFar) {
+        TetrisPiece rotation = piece;
+        do {
+            for (int x = 0; x + rotation.getWidth() <= scratch.getWidth(); x++) {
+                int y = scratch.placementHeight(rotation, x);
+                if (y + rotation.getHeight() > scratch.getHeight()) continue;
+                scratch.placePiece(rotation, x, y);
+                int rows = clearedSoFar + scratch.clearRows();
+                double score = evaluator.evaluateBoard(scratch, rows);
+                scratch.undo();
+                offer(score, parent, rotation, x, rows);
+            }
+            rotation = rotation.fastRotation();
+        } while (rotation != piece);
+    }
+
+    /**
+     * Inserts a child into the sorted list of best children if it is good enough.
+     * Ties keep the child found first.
+     */
+    private void offer(double score, int parent, TetrisPiece piece, int x, int rows) {
+        if (bestCount == beamWidth && score >= bestScores[bestCount - 1]) return;
+        int i = (bestCount < beamWidth) ? bestCount++ : bestCount - 1;
+        while (i > 0 && bestScores[i - 1] > score) {
+            bestScores[i] = bestScores[i - 1];
+            bestParents[i] = bestParents[i - 1];
+            bestPieces[i] = bestPieces[i - 1];
+            bestXs[i] = bestXs[i - 1];
+            bestCleared[i] = bestCleared[i - 1];
+            i--;
+        }
+        bestScores[i] = score;
+        bestParents[i] = parent;
+        bestPieces[i] = piece;
+        bestXs[i] = x;
+        bestCleared[i] = rows;
+    }
+
+    /**
+     * Replaces the beam with the best children, building the board of each.
+     * On the first level (start given) the children all come from the start board
+     * and are themselves the drops of the current piece.
+     *
+     * @return the new beam size
+     */
+    private int keep(BoardState start) {
+        boolean first = start != null;
+        BoardState[] parentStates = states.clone();
+        TetrisPiece[] parentRoots = rootPiece.clone();
+        int[] parentXs = rootX.clone();
+        for (int i = 0; i < bestCount; i++) {
+            int parent = bestParents[i];
+            (first ? start : parentStates[parent]).loadInto(scratch);
+            scratch.placePiece(bestPieces[i], bestXs[i], scratch.placementHeight(bestPieces[i], bestXs[i]));
+            scratch.clearRows();
+            states[i] = scratch.toState();
+            cleared[i] = bestCleared[i];
+            rootPiece[i] = first ? bestPieces[i] : parentRoots[parent];
+            rootX[i] = first ? bestXs[i] : parentXs[parent];
+        }
+        return bestCount;
+    }
+}
@@ -0,0 +1,245 @@
+package model;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** A compact, immutable copy of the blocks on a Tetris board, for storing large numbers of positions.
+ * The cells are packed one bit each, row after row, into a long[]; a 10x24 board fits in four longs.
+ * Nothing else is kept (no tallies, no undo state), so a BoardState is a small fraction of the size of
+ * a TetrisBoard and converts back into one with toBoard().
+ *
+ * For bulk storage, writeTo()/readFrom() copy the packed words to and from flat long[] arrays
+ * or ByteBuffers (which may be direct, i.e. off-heap) without any per-position objects.
+ */
+public final class BoardState implements Serializable {
+
+    private final int width; //board height and width
+    private final int height;
+    private final long[] bits; //cell x,y is bit (y*width + x) of the packed words
+
+    /**
+     * Builds a state around the given packed words, which must not be modified afterwards.
+     */
+    private BoardState(int width, int height, long[] bits) {
+        this.width = width;
+        this.height = height;
+        this.bits = bits;
+    }
+
+    /**
+     * Returns the number of longs needed to store a board of the given size.
+     *
+     * @param width  board width
+     * @param height board height
+     * @return words per packed board
+     */
+    public static int wordCount(int width, int height) {
+        return (int) (((long) width * height + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Packs the blocks on the given board. Only the rows below the board's max height are visited.
+     *
+     * @param board board to copy
+     * @return packed state of the board
+     */
+    public static BoardState of(TetrisBoard board) {
+        int width = board.getWidth();
+        long[] bits = new long[wordCount(width, board.getHeight())];
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            for (int w = 0; w < board.getWordsPerRow(); w++) {
+                putBits(bits, (long) y * width + (w << 6), chunkWidth(width, w), board.getRowWord(y, w));
+            }
+        }
+        return new BoardState(width, board.getHeight(), bits);
+    }
+
+    /**
+     * Returns a new board holding the blocks in this state.
+     *
+     * @param historyDepth number of placements the new board can undo
+     * @return a new, committed board
+     */
+    public TetrisBoard toBoard(int historyDepth) {
+        TetrisBoard board = new TetrisBoard(width, height, historyDepth);
+        loadInto(board);
+        return board;
+    }
+
+    /**
+     * Overwrites the given board, which must be the same size, with the blocks in this state.
+     * Lets search code reuse one board for many states instead of allocating a board per state.
+     *
+     * @param board board to overwrite; it is left committed, with an empty history
+     */
+    public void loadInto(TetrisBoard board) {
+        if (board.getWidth() != width || board.getHeight() != height)
+            throw new IllegalArgumentException("Board is " + board.getWidth() + "x" + board.getHeight()
+                    + ", not " + width + "x" + height);
+        board.newGame();
+        int top = 0;
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < board.getWordsPerRow(); w++) {
+                long word = getBits(bits, (long) y * width + (w << 6), chunkWidth(width, w));
+                if (word != 0) {
+                    board.setRowWord(y, w, word);
+                    top = y + 1;
+                }
+            }
+        }
+        board.settleTallies(top);
+    }
+
+    /**
+     * Returns a new board holding the blocks in this state.
+     *
+     * @return a new, committed board with the default history depth
+     */
+    public TetrisBoard toBoard() {
+        return toBoard(TetrisBoard.DEFAULT_HISTORY_DEPTH);
+    }
+
+    /**
+     * Copies the packed words into dst, starting at offset. wordCount(width, height) words are written.
+     *
+     * @param dst    destination array
+     * @param offset index of the first word to write
+     */
+    public void writeTo(long[] dst, int offset) {
+        System.arraycopy(bits, 0, dst, offset, bits.length);
+    }
+
+    /**
+     * Reads a state written by writeTo(long[], int).
+     *
+     * @param src    source array
+     * @param offset index of the first word to read
+     * @param width  board width
+     * @param height board height
+     * @return the state stored at offset
+     */
+    public static BoardState readFrom(long[] src, int offset, int width, int height) {
+        return new BoardState(width, height, Arrays.copyOfRange(src, offset, offset + wordCount(width, height)));
+    }
+
+    /**
+     * Writes the packed words at the buffer's current position, advancing it by
+     * 8 * wordCount(width, height) bytes.
+     *
+     * @param dst destination buffer
+     */
+    public void writeTo(ByteBuffer dst) {
+        for (long word : bits) dst.putLong(word);
+    }
+
+    /**
+     * Reads a state written by writeTo(ByteBuffer) from the buffer's current position.
+     *
+     * @param src    source buffer
+     * @param width  board width
+     * @param height board height
+     * @return the state read
+     */
+    public static BoardState readFrom(ByteBuffer src, int width, int height) {
+        long[] bits = new long[wordCount(width, height)];
+        for (int i = 0; i < bits.length; i++) bits[i] = src.getLong();
+        return new BoardState(width, height, bits);
+    }
+
+    /**
+     * Returns true if the block at x,y is filled, reading straight from a flat array of packed
+     * boards so that bulk scans need not create BoardState objects.
+     *
+     * @param src    array of packed boards
+     * @param offset index of the first word of the board
+     * @param width  board width
+     * @param x      grid position, x
+     * @param y      grid position, y
+     * @return true if the block is filled
+     */
+    public static boolean getGrid(long[] src, int offset, int width, int x, int y) {
+        long bit = (long) y * width + x;
+        return (src[offset + (int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Getter for board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns true if the given block is filled. Blocks outside of the
+     * valid width/height area always return true.
+     *
+     * @param x grid position, x
+     * @param y grid position, y
+     * @return true if the given block at x,y is filled, else false
+     */
+    public boolean getGrid(int x, int y) {
+        if (x >= width || x < 0 || y >= height || y < 0)
+            return true;
+        return getGrid(bits, 0, width, x, y);
+    }
+
+    /**
+     * Returns the number of columns held by word w of a board row (64, except possibly for the last word).
+     */
+    private static int chunkWidth(int width, int w) {
+        return Math.min(Long.SIZE, width - (w << 6));
+    }
+
+    /**
+     * Stores count bits of value starting at the given bit of the packed words.
+     */
+    private static void putBits(long[] bits, long bit, int count, long value) {
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        bits[word] |= value << shift;
+        if (shift + count > Long.SIZE) {
+            bits[word + 1] |= value >>> (Long.SIZE - shift);
+        }
+    }
+
+    /**
+     * Extracts count bits starting at the given bit of the packed words.
+     */
+    private static long getBits(long[] bits, long bit, int count) {
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = bits[word] >>> shift;
+        if (shift + count > Long.SIZE) {
+            value |= bits[word + 1] << (Long.SIZE - shift);
+        }
+        return (count == Long.SIZE) ? value : value & ((1L << count) - 1);
+    }
+
+    /**
+     * Returns true if the other object is a state of the same size with the same blocks filled.
+     *
+     * @param obj the object to compare to this
+     *
+     * @return true if the states are the same
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof BoardState)) return false;
+        BoardState other = (BoardState) obj;
+        return width == other.width && height == other.height && Arrays.equals(bits, other.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * width + height) + Arrays.hashCode(bits);
+    }
+}
@@ -0,0 +1,208 @@
+package model;
+
+/** The outcome of dropping every rotation of a piece in every column of a board, filled in by
+ * TetrisBoard.dropAll(). One object can be reused for every call, so a search does not
+ * allocate anything per candidate.
+ *
+ * Candidate i was the rotation getPiece(i) dropped at column getX(i). A drop only raises the
+ * columns under the piece, so only those are stored, next to one copy of the board's own column
+ * heights; the few drops that clear rows store every column, since a clear can lower any of them.
+ * Either way getColumnHeight() gives the height of any column after the drop.
+ */
+public class DropResults {
+
+    private int width; //width of the board the results are for
+    private int count; //number of candidates
+    private TetrisPiece[] pieces; //rotation dropped by each candidate
+    private int[] xs; //column of each candidate
+    private int[] ys; //landing y of each candidate
+    private int[] cleared; //rows each candidate clears
+    private int[] firsts; //first column each candidate changes
+    private int[] spans; //number of columns each candidate changes
+    private int[] offsets; //where the changed columns of each candidate start in heights
+    private int[] heights = new int[0]; //heights of the changed columns, one run per candidate
+    private int used; //entries of heights in use
+    private int[] base; //column heights of the board before any drop
+
+    /**
+     * Constructor for results from a board of the given width
+     *
+     * @param width board width
+     */
+    public DropResults(int width) {
+        this(width, 4 * width);
+    }
+
+    /**
+     * Constructor for results from a board of the given width, with room for the given
+     * number of candidates before any arrays need to grow.
+     *
+     * @param width    board width
+     * @param capacity expected number of candidates
+     */
+    public DropResults(int width, int capacity) {
+        this.width = width;
+        base = new int[width];
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Empties the results ready for a board of the given width, whose column heights
+     * are the first boardWidth entries of columnHeights.
+     */
+    void reset(int boardWidth, int[] columnHeights) {
+        count = 0;
+        used = 0;
+        width = boardWidth;
+        if (base.length != boardWidth) base = new int[boardWidth];
+        System.arraycopy(columnHeights, 0, base, 0, boardWidth);
+    }
+
+    /**
+     * Adds a candidate that changes the given run of columns, growing the arrays if they are full,
+     * and returns its number. The heights of the run start at getOffset() of the candidate in
+     * getHeights(), and start out as the board's own.
+     */
+    int add(TetrisPiece piece, int x, int y, int first, int span) {
+        if (count == pieces.length) {
+            TetrisPiece[] oldPieces = pieces;
+            int[] oldXs = xs, oldYs = ys, oldCleared = cleared, oldFirsts = firsts, oldSpans = spans, oldOffsets = offsets;
+            allocate(2 * count);
+            System.arraycopy(oldPieces, 0, pieces, 0, count);
+            System.arraycopy(oldXs, 0, xs, 0, count);
+            System.arraycopy(oldYs, 0, ys, 0, count);
+            System.arraycopy(oldCleared, 0, cleared, 0, count);
+            System.arraycopy(oldFirsts, 0, firsts, 0, count);
+            System.arraycopy(oldSpans, 0, spans, 0, count);
+            System.arraycopy(oldOffsets, 0, offsets, 0, count);
+        }
+        if (used + span > heights.length) {
+            int[] oldHeights = heights;
+            heights = new int[Math.max(2 * heights.length, used + span)];
+            System.arraycopy(oldHeights, 0, heights, 0, used);
+        }
+        pieces[count] = piece;
+        xs[count] = x;
+        ys[count] = y;
+        cleared[count] = 0;
+        firsts[count] = first;
+        spans[count] = span;
+        offsets[count] = used;
+        System.arraycopy(base, first, heights, used, span);
+        used += span;
+        return count++;
+    }
+
+    /**
+     * Records the rows cleared by candidate i.
+     */
+    void setRowsCleared(int i, int rows) {
+        cleared[i] = rows;
+    }
+
+    private void allocate(int capacity) {
+        pieces = new TetrisPiece[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+        cleared = new int[capacity];
+        firsts = new int[capacity];
+        spans = new int[capacity];
+        offsets = new int[capacity];
+    }
+
+    /**
+     * @return number of candidates
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return width of the board
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @param i candidate number
+     * @return the rotation dropped
+     */
+    public TetrisPiece getPiece(int i) {
+        return pieces[i];
+    }
+
+    /**
+     * @param i candidate number
+     * @return the column the piece was dropped at
+     */
+    public int getX(int i) {
+        return xs[i];
+    }
+
+    /**
+     * @param i candidate number
+     * @return the y where the piece comes to rest
+     */
+    public int getY(int i) {
+        return ys[i];
+    }
+
+    /**
+     * @param i candidate number
+     * @return number of rows the drop clears
+     */
+    public int getRowsCleared(int i) {
+        return cleared[i];
+    }
+
+    /**
+     * @param i candidate number
+     * @param x grid column, x
+     * @return the height of column x after the drop and its clears
+     */
+    public int getColumnHeight(int i, int x) {
+        int c = x - firsts[i];
+        return (c >= 0 && c < spans[i]) ? heights[offsets[i] + c] : base[x];
+    }
+
+    /**
+     * @param x grid column, x
+     * @return the height of column x before any drop
+     */
+    public int getBaseHeight(int x) {
+        return base[x];
+    }
+
+    /**
+     * @param i candidate number
+     * @return the first column the drop may change
+     */
+    public int getFirstColumn(int i) {
+        return firsts[i];
+    }
+
+    /**
+     * @param i candidate number
+     * @return the number of columns the drop may change, from getFirstColumn()
+     */
+    public int getColumnCount(int i) {
+        return spans[i];
+    }
+
+    /**
+     * @param i candidate number
+     * @return where the heights of the changed columns start in getHeights()
+     */
+    int getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Returns the heights of the changed columns of every candidate. This is the backing array,
+     * not a copy; it is overwritten by the next dropAll().
+     */
+    int[] getHeights() {
+        return heights;
+    }
+}
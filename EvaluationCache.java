@@ -0,0 +1,115 @@
+package model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size table of board scores keyed by Zobrist hash, so a search that reaches the same
+ * board by different move orders only evaluates it once.
+ *
+ * The table is open-addressed in buckets of two slots, all in one flat long array (scores stored
+ * as their raw double bits), so nothing is boxed and a lookup touches a single cache line. Each
+ * bucket keeps its slots in order of use: a hit in the second slot swaps it to the front, and a new
+ * entry goes in the front slot, pushing the old front entry into the second slot and evicting the
+ * entry used less recently.
+ *
+ * Search threads share one table without locks. Each slot stores key ^ score next to the score;
+ * a reader only accepts a slot if the two still agree, so a slot half-written by another thread
+ * reads as a miss instead of returning the wrong score.
+ */
+public class EvaluationCache {
+
+    private static final long EMPTY = 0x7ff8dead0000beefL; //a NaN, never a real score
+
+    private final long[] table; //key ^ score bits, then score bits, of each slot; two slots per bucket
+    private final int bucketMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor for a cache with room for at least the given number of scores
+     *
+     * @param capacity number of scores to keep (rounded up to a power of two)
+     */
+    public EvaluationCache(int capacity) {
+        if (capacity < 2 || capacity > 1 << 29) throw new IllegalArgumentException("Bad capacity: " + capacity);
+        int slots = Integer.highestOneBit(capacity - 1) << 1;
+        table = new long[2 * slots];
+        bucketMask = slots / 2 - 1;
+        clear();
+    }
+
+    /**
+     * Returns the score stored for the key, or NaN if there is none.
+     *
+     * @param key board hash
+     * @return the score, or NaN
+     */
+    public double get(long key) {
+        int base = ((int) (key ^ (key >>> 32)) & bucketMask) << 2;
+        long bits = table[base + 1];
+        if ((table[base] ^ bits) != key || bits == EMPTY) {
+            bits = table[base + 3];
+            if ((table[base + 2] ^ bits) != key || bits == EMPTY) {
+                misses.increment();
+                return Double.NaN;
+            }
+            //used more recently than the front slot now, so swap them
+            table[base + 2] = table[base];
+            table[base + 3] = table[base + 1];
+            table[base] = key ^ bits;
+            table[base + 1] = bits;
+        }
+        hits.increment();
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Stores the score for the key, evicting the entry of its bucket used less recently if need be.
+     *
+     * @param key   board hash
+     * @param score the board's score
+     */
+    public void put(long key, double score) {
+        int base = ((int) (key ^ (key >>> 32)) & bucketMask) << 2;
+        long front = table[base + 1];
+        if (front != EMPTY && (table[base] ^ front) != key) { //keep the front entry as the second one
+            table[base + 2] = table[base];
+            table[base + 3] = front;
+        }
+        long bits = Double.doubleToRawLongBits(score);
+        table[base] = key ^ bits;
+        table[base + 1] = bits;
+    }
+
+    /**
+     * Empties the cache and resets the counters. Must not be called while other threads are using it.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length; i += 2) {
+            table[i] = 0L;
+            table[i + 1] = EMPTY;
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * @return number of get() calls that found a score
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of get() calls that found nothing
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of scores the cache can hold
+     */
+    public int getCapacity() {
+        return table.length / 2;
+    }
+}
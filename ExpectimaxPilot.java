@@ -0,0 +1,194 @@
+package model;
+
+import java.io.Serializable;
+
+/** A pilot that plans for pieces it has not seen yet.
+ * Each drop of the current piece is scored by what can be expected to follow it: at each of the
+ * next depth levels the piece is either known (from the preview) or, past the end of the preview,
+ * equally likely to be any of the pieces, as TetrisModel picks them. Known pieces are dropped in
+ * their best spot; unknown ones are averaged over every piece, each dropped in its best spot.
+ *
+ * The last level is scored as a batch: every drop of its piece is found with TetrisBoard.dropAll()
+ * and scored at once by a BatchEvaluator, which gives exactly the scores evaluateBoard() would.
+ *
+ * The value of each board searched above the last level is remembered in an EvaluationCache, keyed
+ * by the board's Zobrist hash, the number of levels still to search and the known pieces among them,
+ * so a board reached again (by another drop order, or in a later decision) is only worked out once.
+ * The memo is kept between decisions and only emptied when the board size changes; nothing is boxed,
+ * and a value evicted from it is just worked out again.
+ * Rows cleared only add a constant to the score, so they are kept out of the remembered values.
+ */
+public class ExpectimaxPilot implements TetrisPilot, Serializable {
+
+    private final AutoPilot evaluator; //scores the boards at the bottom of the search
+    private final double clearWeight; //score per row cleared
+    private final TetrisPiece[] pieces; //the pieces an unknown piece may be
+    private final int depth; //number of pieces to search beneath the current one
+
+    private transient EvaluationCache memo; //value of each (board, levels to go, known pieces) searched, created on first use
+    private transient TetrisPiece[] known; //preview pieces for the current decision
+    private transient long[] levelKeys; //for the current decision: what the memo key mixes in at each level
+    private transient BatchEvaluator batch; //scores the last level
+    private transient DropResults drops; //scratch for the last level
+    private transient double[] scores;
+    private transient int boardWidth, boardHeight; //size of the board the memo is for
+
+    public static final int MEMO_SIZE = 1 << 16; //board values kept between decisions
+
+    /**
+     * Constructor for a pilot that searches one piece ahead with the default weights
+     */
+    public ExpectimaxPilot() {
+        this(AutoPilot.DEFAULT_WEIGHTS, TetrisPiece.getPieces(), 1);
+    }
+
+    /**
+     * Constructor for a pilot
+     *
+     * @param weights feature weights, as for AutoPilot
+     * @param pieces  the pieces that may come next, all equally likely
+     * @param depth   number of pieces to search beneath each drop of the current piece
+     */
+    public ExpectimaxPilot(double[] weights, TetrisPiece[] pieces, int depth) {
+        if (depth < 0) throw new IllegalArgumentException("Bad depth: " + depth);
+        this.evaluator = new AutoPilot(weights);
+        this.clearWeight = weights[AutoPilot.ROWS_CLEARED];
+        this.pieces = pieces.clone();
+        this.depth = depth;
+    }
+
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, currentX, currentY).getMove(0);
+    }
+
+    @Override
+    public MovePlan planMoves(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, new TetrisPiece[0], currentX, currentY);
+    }
+
+    /**
+     * Searches every drop of the piece and returns the moves that steer it to the one with the best
+     * expected outcome. Pieces in the preview are searched as known pieces, later ones are averaged.
+     * The board must be committed, i.e. must not contain the piece itself.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param preview  The pieces that come after the current one, next one first
+     * @param currentX Where the current piece is currently located (X position)
+     * @param currentY Where the current piece is currently located (Y position)
+     * @return The moves to the best drop
+     */
+    @Override
+    public synchronized MovePlan planMoves(TetrisBoard board, TetrisPiece piece, TetrisPiece[] preview, int currentX, int currentY) {
+        if (memo == null) { //not serialized with the pilot
+            memo = new EvaluationCache(MEMO_SIZE);
+            batch = new BatchEvaluator(evaluator.getWeights());
+            scores = new double[0];
+        }
+        if (drops == null || board.getWidth() != boardWidth || board.getHeight() != boardHeight) {
+            memo.clear(); //the hash only covers the filled cells, so values for another size can't be used
+            drops = new DropResults(board.getWidth());
+            boardWidth = board.getWidth();
+            boardHeight = board.getHeight();
+        }
+        known = preview;
+        levelKeys = new long[depth];
+        long pieceKey = 0; //the known pieces from the level on
+        for (int level = depth - 1; level >= 0; level--) {
+            if (level < known.length) pieceKey = (pieceKey + known[level].hashCode() + 1) * 0xBF58476D1CE4E5B9L;
+            levelKeys[level] = pieceKey ^ (depth - level) * 0x9E3779B97F4A7C15L;
+        }
+        TetrisBoard copy = board.toState().toBoard(depth + 1); //so the search can undo its own placements
+
+        TetrisPiece root = piece;
+        while (root.getRotationIndex() != 0) root = root.fastRotation();
+        TetrisPiece bestPiece = null;
+        int bestX = 0;
+        double bestScore = Double.POSITIVE_INFINITY;
+        TetrisPiece rotation = root;
+        do {
+            for (int x = 0; x + rotation.getWidth() <= copy.getWidth(); x++) {
+                int y = copy.placementHeight(rotation, x);
+                if (y + rotation.getHeight() > copy.getHeight()) continue;
+                copy.placePiece(rotation, x, y);
+                double score = clearWeight * copy.clearRows() + value(copy, 0);
+                copy.undo(1);
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestPiece = rotation;
+                    bestX = x;
+                }
+            }
+            rotation = rotation.fastRotation();
+        } while (rotation != root);
+        known = null;
+        levelKeys = null;
+
+        if (bestPiece == null) { //nowhere to go, so get it over with
+            return MovePlan.of(TetrisModel.MoveType.DROP, piece, currentX);
+        }
+        return MovePlan.toward(piece, currentX, bestPiece, bestX);
+    }
+
+    /**
+     * Returns the expected score of the board with the pieces of levels level..depth-1 still to come,
+     * not counting rows already cleared.
+     */
+    private double value(TetrisBoard board, int level) {
+        if (level == depth) return evaluator.evaluateBoard(board, 0);
+
+        long key = board.getZobristHash() ^ levelKeys[level];
+        double seen = memo.get(key);
+        if (!Double.isNaN(seen)) return seen;
+
+        double value;
+        if (level < known.length) { //the piece is known
+            value = bestDrop(board, known[level], level);
+        } else { //any piece, all equally likely
+            value = 0;
+            for (TetrisPiece piece : pieces) value += bestDrop(board, piece, level);
+            value /= pieces.length;
+        }
+        memo.put(key, value);
+        return value;
+    }
+
+    /**
+     * Returns the number of times a board's value was found in the memo rather than worked out.
+     *
+     * @return memo hits since the memo was created or last emptied
+     */
+    public long getMemoHits() {
+        return (memo == null) ? 0 : memo.getHits();
+    }
+
+    /**
+     * Returns the best score over every drop of the piece, as the piece at the given level.
+     */
+    private double bestDrop(TetrisBoard board, TetrisPiece piece, int level) {
+        double best = Double.MAX_VALUE; //topping out is as bad as it gets
+        if (level == depth - 1) { //the last level: its drops are scored all at once
+            int count = board.dropAll(piece, drops);
+            if (scores.length < count) scores = new double[count];
+            batch.evaluate(board, drops, scores);
+            for (int i = 0; i < count; i++) {
+                if (scores[i] < best) best = scores[i];
+            }
+            return best;
+        }
+        TetrisPiece rotation = piece;
+        do {
+            for (int x = 0; x + rotation.getWidth() <= board.getWidth(); x++) {
+                int y = board.placementHeight(rotation, x);
+                if (y + rotation.getHeight() > board.getHeight()) continue;
+                board.placePiece(rotation, x, y);
+                double score = clearWeight * board.clearRows() + value(board, level + 1);
+                board.undo(1);
+                if (score < best) best = score;
+            }
+            rotation = rotation.fastRotation();
+        } while (rotation != piece);
+        return best;
+    }
+}
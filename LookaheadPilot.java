@@ -0,0 +1,207 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A pilot that looks ahead at the next pieces in the preview before choosing a drop.
+ * Every drop of the current piece is scored by the best result reachable by also dropping the
+ * next lookahead pieces, evaluated with the AutoPilot features at the end of each line of play.
+ *
+ * The drops of the current piece are searched in parallel on a ForkJoinPool, each on its own copy
+ * of the board so no board is shared between threads. Each drop writes its score into its own
+ * slot and the best is picked in candidate order afterwards, so the choice (ties included) does not
+ * depend on how the work was scheduled. Each thread of the pool keeps one evaluator for the life
+ * of the pilot, and all of them share one score cache.
+ */
+public class LookaheadPilot implements TetrisPilot, Serializable {
+
+    private final double[] weights; //feature weights for the evaluator
+    private final int lookahead; //number of preview pieces to search beneath each drop
+    private final int parallelism; //threads in the pool
+    private transient ForkJoinPool pool; //created on first use
+    private transient EvaluationCache cache; //board scores shared by all the search threads, created on first use
+    private transient ThreadLocal<AutoPilot> evaluators; //one per search thread, as evaluators keep scratch space
+
+    public static final int CACHE_SIZE = 1 << 16; //board scores kept between searches
+
+    /**
+     * Constructor for a pilot that looks one piece ahead with the default weights, on every core
+     */
+    public LookaheadPilot() {
+        this(AutoPilot.DEFAULT_WEIGHTS, 1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor for a pilot
+     *
+     * @param weights     feature weights, as for AutoPilot
+     * @param lookahead   number of preview pieces to search beneath each drop of the current piece
+     * @param parallelism number of threads to search with
+     */
+    public LookaheadPilot(double[] weights, int lookahead, int parallelism) {
+        if (lookahead < 0) throw new IllegalArgumentException("Bad lookahead: " + lookahead);
+        if (parallelism < 1) throw new IllegalArgumentException("Bad parallelism: " + parallelism);
+        new AutoPilot(weights); //check the weights
+        this.weights = weights.clone();
+        this.lookahead = lookahead;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, currentX, currentY).getMove(0);
+    }
+
+    @Override
+    public MovePlan planMoves(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return planMoves(board, piece, new TetrisPiece[0], currentX, currentY);
+    }
+
+    /**
+     * Searches every drop of the piece, with the first lookahead pieces of the preview dropped beneath it,
+     * and returns the moves that steer the piece to the best one.
+     * The board must be committed, i.e. must not contain the piece itself.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param preview  The pieces that come after the current one, next one first
+     * @param currentX Where the current piece is currently located (X position)
+     * @param currentY Where the current piece is currently located (Y position)
+     * @return The moves to the best drop
+     */
+    @Override
+    public MovePlan planMoves(TetrisBoard board, TetrisPiece piece, TetrisPiece[] preview, int currentX, int currentY) {
+        TetrisPiece[] next = new TetrisPiece[Math.min(lookahead, preview.length)];
+        System.arraycopy(preview, 0, next, 0, next.length);
+
+        //list the drops of the current piece, from the root of its ring so the order is always the same
+        TetrisPiece root = piece;
+        while (root.getRotationIndex() != 0) root = root.fastRotation();
+        List<TetrisPiece> rotations = new ArrayList<>();
+        List<Integer> columns = new ArrayList<>();
+        TetrisPiece rotation = root;
+        do {
+            for (int x = 0; x + rotation.getWidth() <= board.getWidth(); x++) {
+                if (board.placementHeight(rotation, x) + rotation.getHeight() > board.getHeight()) continue;
+                rotations.add(rotation);
+                columns.add(x);
+            }
+            rotation = rotation.fastRotation();
+        } while (rotation != root);
+        if (rotations.isEmpty()) { //nowhere to go, so get it over with
+            return MovePlan.of(TetrisModel.MoveType.DROP, piece, currentX);
+        }
+
+        //score every drop in parallel, each into its own slot
+        BoardState state = board.toState();
+        ThreadLocal<AutoPilot> evaluators = getEvaluators();
+        double[] scores = new double[rotations.size()];
+        List<DropTask> tasks = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            tasks.add(new DropTask(state, rotations.get(i), columns.get(i), next, evaluators, scores, i));
+        }
+        getPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] < scores[best]) best = i; //ties go to the first candidate
+        }
+        return MovePlan.toward(piece, currentX, rotations.get(best), columns.get(best));
+    }
+
+    /**
+     * Returns the pool, creating it on first use (the pool is not serialized with the pilot).
+     */
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+
+    /**
+     * Returns the evaluators of the search threads, each created on its thread's first use
+     * (they are not serialized with the pilot).
+     */
+    private synchronized ThreadLocal<AutoPilot> getEvaluators() {
+        if (evaluators == null) {
+            EvaluationCache shared = getCache();
+            evaluators = ThreadLocal.withInitial(() -> {
+                AutoPilot evaluator = new AutoPilot(weights);
+                evaluator.setCache(shared);
+                return evaluator;
+            });
+        }
+        return evaluators;
+    }
+
+    /**
+     * Returns the score cache, creating it on first use (the cache is not serialized with the pilot).
+     *
+     * @return the cache shared by the search threads
+     */
+    public synchronized EvaluationCache getCache() {
+        if (cache == null) cache = new EvaluationCache(CACHE_SIZE);
+        return cache;
+    }
+
+    /** Scores one drop of the current piece on a private copy of the board.
+     */
+    private class DropTask extends RecursiveAction {
+        private final BoardState state; //the board before the drop
+        private final TetrisPiece piece; //rotation to drop
+        private final int x; //column to drop at
+        private final TetrisPiece[] next; //pieces to search beneath the drop
+        private final ThreadLocal<AutoPilot> evaluators; //the evaluator of whichever thread runs the task
+        private final double[] scores; //where to write the score
+        private final int slot;
+
+        DropTask(BoardState state, TetrisPiece piece, int x, TetrisPiece[] next, ThreadLocal<AutoPilot> evaluators,
+                 double[] scores, int slot) {
+            this.state = state;
+            this.piece = piece;
+            this.x = x;
+            this.next = next;
+            this.evaluators = evaluators;
+            this.scores = scores;
+            this.slot = slot;
+        }
+
+        @Override
+        protected void compute() {
+            TetrisBoard board = state.toBoard(next.length + 1);
+            AutoPilot evaluator = evaluators.get();
+            board.placePiece(piece, x, board.placementHeight(piece, x));
+            int cleared = board.clearRows();
+            scores[slot] = search(board, evaluator, 0, cleared);
+        }
+
+        /**
+         * Returns the best score reachable by dropping next[level], next[level+1], ... on the board,
+         * where cleared rows have been cleared so far.
+         */
+        private double search(TetrisBoard board, AutoPilot evaluator, int level, int cleared) {
+            if (level == next.length) return evaluator.evaluateBoard(board, cleared);
+            double best = Double.MAX_VALUE; //topping out is as bad as it gets
+            TetrisPiece rotation = next[level];
+            do {
+                for (int x = 0; x + rotation.getWidth() <= board.getWidth(); x++) {
+                    int y = board.placementHeight(rotation, x);
+                    if (y + rotation.getHeight() > board.getHeight()) continue;
+                    board.placePiece(rotation, x, y);
+                    double score = search(board, evaluator, level + 1, cleared + board.clearRows());
+                    board.undo(1);
+                    if (score < best) best = score;
+                }
+                rotation = rotation.fastRotation();
+            } while (rotation != next[level]);
+            return best;
+        }
+    }
+}
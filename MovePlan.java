@@ -0,0 +1,125 @@
+package model;
+
+import java.io.Serializable;
+
+/** A sequence of moves that takes a piece from where it is to a chosen landing spot.
+ * A pilot works out the plan once per piece, and the model replays it a move per tick,
+ * checking before each move that the piece is where the plan expects it to be.
+ */
+public class MovePlan implements Serializable {
+
+    private final TetrisPiece target; //rotation the piece should end up in
+    private final int targetX; //column the piece should be dropped at
+    private final TetrisModel.MoveType[] moves; //the moves, in order
+    private final TetrisPiece[] pieceBefore; //rotation of the piece before each move
+    private final int[] xBefore; //x of the piece before each move
+
+    /**
+     * Constructor for a plan from the given moves, with the rotation and x expected before each of them
+     */
+    private MovePlan(TetrisPiece target, int targetX, TetrisModel.MoveType[] moves, TetrisPiece[] pieceBefore, int[] xBefore) {
+        this.target = target;
+        this.targetX = targetX;
+        this.moves = moves;
+        this.pieceBefore = pieceBefore;
+        this.xBefore = xBefore;
+    }
+
+    /**
+     * Returns the plan that turns the piece into the target rotation, slides it to targetX
+     * and drops it. The rotations come first, with x adjusted the way TetrisModel does for each ROTATE.
+     *
+     * @param piece    the piece as it is now
+     * @param currentX where the piece is now (X position)
+     * @param target   rotation to end up in, from the same rotation ring as piece
+     * @param targetX  column to drop at
+     * @return the plan
+     */
+    public static MovePlan toward(TetrisPiece piece, int currentX, TetrisPiece target, int targetX) {
+        int rotations = 0;
+        int x = currentX;
+        for (TetrisPiece p = piece; p != target; p = p.fastRotation()) {
+            if (rotations > 0 && p == piece) throw new IllegalArgumentException("Target is not a rotation of the piece");
+            x += (p.getWidth() - p.fastRotation().getWidth()) / 2;
+            rotations++;
+        }
+        int size = rotations + Math.abs(targetX - x) + 1;
+        TetrisModel.MoveType[] moves = new TetrisModel.MoveType[size];
+        TetrisPiece[] pieceBefore = new TetrisPiece[size];
+        int[] xBefore = new int[size];
+
+        TetrisPiece p = piece;
+        x = currentX;
+        for (int i = 0; i < size; i++) {
+            pieceBefore[i] = p;
+            xBefore[i] = x;
+            if (p != target) {
+                moves[i] = TetrisModel.MoveType.ROTATE;
+                x += (p.getWidth() - p.fastRotation().getWidth()) / 2;
+                p = p.fastRotation();
+            } else if (x < targetX) {
+                moves[i] = TetrisModel.MoveType.RIGHT;
+                x++;
+            } else if (x > targetX) {
+                moves[i] = TetrisModel.MoveType.LEFT;
+                x--;
+            } else {
+                moves[i] = TetrisModel.MoveType.DROP;
+            }
+        }
+        return new MovePlan(target, targetX, moves, pieceBefore, xBefore);
+    }
+
+    /**
+     * Returns a plan of a single move, for pilots that only decide one move at a time.
+     *
+     * @param move     the move
+     * @param piece    the piece as it is now
+     * @param currentX where the piece is now (X position)
+     * @return the plan
+     */
+    public static MovePlan of(TetrisModel.MoveType move, TetrisPiece piece, int currentX) {
+        return new MovePlan(piece, currentX, new TetrisModel.MoveType[]{move}, new TetrisPiece[]{piece}, new int[]{currentX});
+    }
+
+    /**
+     * @return the rotation the piece should end up in
+     */
+    public TetrisPiece getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the column the piece should be dropped at
+     */
+    public int getTargetX() {
+        return targetX;
+    }
+
+    /**
+     * @return number of moves in the plan
+     */
+    public int size() {
+        return moves.length;
+    }
+
+    /**
+     * @param i move number
+     * @return move i of the plan
+     */
+    public TetrisModel.MoveType getMove(int i) {
+        return moves[i];
+    }
+
+    /**
+     * Returns true if the piece is where the plan expects it to be before move i.
+     *
+     * @param i     move number
+     * @param piece the piece as it is now
+     * @param x     where the piece is now (X position)
+     * @return true if move i can be played as planned
+     */
+    public boolean isOnTrack(int i, TetrisPiece piece, int x) {
+        return i < moves.length && pieceBefore[i] == piece && xBefore[i] == x;
+    }
+}
@@ -0,0 +1,258 @@
+package model;
+
+import java.util.Arrays;
+
+/** Finds every place a piece can come to rest, and the shortest sequence of moves to get it there.
+ * Unlike dropping the piece straight down in each column, this also finds positions that need a
+ * slide or a turn after the piece has fallen, e.g. tucked under an overhang.
+ *
+ * The search is a breadth-first search over piece states (rotation, x, y), using the moves exactly
+ * as TetrisModel applies them: LEFT and RIGHT shift x, DOWN lowers y, ROTATE turns the piece and
+ * re-centres it, and DROP moves it to the board's placementHeight() unless that is higher than
+ * the piece already is. A state is a rest position if the piece cannot move down from it.
+ * Gravity is not modelled, so the paths count the player's moves only.
+ *
+ * Visited states are marked in a bitset indexed by (rotation, x, y). A second bitset with the same
+ * layout marks the states the piece fits in; it is built for a whole column of y values at a time
+ * from column bitmasks of the board, so the search itself never touches the board grid.
+ * All arrays are allocated up front for the board size and reused, and only the words set by a
+ * search are cleared afterwards.
+ */
+public class PathFinder {
+
+    private static final TetrisModel.MoveType[] MOVES = TetrisModel.MoveType.values();
+    private static final int ROTATE = TetrisModel.MoveType.ROTATE.ordinal(); //moves by number, for the move array
+    private static final int LEFT = TetrisModel.MoveType.LEFT.ordinal();
+    private static final int RIGHT = TetrisModel.MoveType.RIGHT.ordinal();
+    private static final int DROP = TetrisModel.MoveType.DROP.ordinal();
+    private static final int DOWN = TetrisModel.MoveType.DOWN.ordinal();
+
+    private final int width; //board height and width
+    private final int height;
+    private final int yWords; //longs per column bitmask
+    private final int xBits, yBits; //a state is ((rotation << xBits | x) << yBits) | y
+    private int rotations; //capacity in rotations; grows if a piece has more
+
+    private final long[] columns; //filled blocks of each column, bit y set if x,y is filled (yWords per column)
+    private long[] legal; //bit set for every state the piece fits in, laid out like the states
+    private long[] visited; //bit set for every state reached
+    private int[] queue; //states in the order they were reached
+    private int[] parent; //state each state was reached from, by state
+    private byte[] move; //move that reached each state, by state
+    private int[] locks; //the rest positions found, in the order they were reached
+    private int lockCount;
+    private int visitedCount;
+    private PieceTable table; //tables of the piece searched
+    private int[] ring; //table index of each rotation of the piece searched, counting from the piece itself
+
+    /**
+     * Constructor for a path finder for boards of the given size
+     *
+     * @param width  board width
+     * @param height board height
+     */
+    public PathFinder(int width, int height) {
+        this.width = width;
+        this.height = height;
+        yWords = (height + Long.SIZE - 1) / Long.SIZE;
+        xBits = 32 - Integer.numberOfLeadingZeros(Math.max(width - 1, 1));
+        yBits = 6 + 32 - Integer.numberOfLeadingZeros(Math.max(yWords - 1, 0));
+        columns = new long[width * yWords];
+        allocate(4);
+    }
+
+    private void allocate(int rotationCount) {
+        rotations = rotationCount;
+        int states = rotations << (xBits + yBits);
+        legal = new long[states >>> 6];
+        visited = new long[states >>> 6];
+        queue = new int[states];
+        parent = new int[states];
+        move = new byte[states];
+        locks = new int[states];
+        ring = new int[rotations];
+    }
+
+    /**
+     * Searches every state the piece can reach from x,y on the board.
+     * The board must be committed, i.e. must not contain the piece itself.
+     *
+     * @param board the board, the same size this path finder was made for
+     * @param piece the piece as it is now
+     * @param x     where the piece is now (X position)
+     * @param y     where the piece is now (Y position)
+     * @return number of rest positions found
+     */
+    public int search(TetrisBoard board, TetrisPiece piece, int x, int y) {
+        if (board.getWidth() != width || board.getHeight() != height)
+            throw new IllegalArgumentException("Path finder is for " + width + "x" + height + " boards");
+
+        //forget the last search, clearing only the words it touched
+        for (int i = 0; i < visitedCount; i++) visited[queue[i] >>> 6] = 0L;
+        visitedCount = 0;
+        lockCount = 0;
+
+        //index the rotations of the piece by their place in the ring, starting from the piece
+        table = piece.getTable();
+        int count = table.getRotationCount(0);
+        if (count > rotations) allocate(count);
+        ring[0] = piece.getRotationIndex();
+        for (int r = 1; r < count; r++) ring[r] = table.getNext(ring[r - 1]);
+
+        if (!board.canPlace(piece, x, y)) return 0;
+        findLegalStates(board, count);
+        visit(index(0, x, y), -1, -1);
+
+        int yMask = (1 << yBits) - 1;
+        int xMask = (1 << xBits) - 1;
+        for (int head = 0; head < visitedCount; head++) {
+            int state = queue[head];
+            int sy = state & yMask;
+            int sx = (state >>> yBits) & xMask;
+            int r = state >>> (xBits + yBits);
+            int p = ring[r];
+
+            if (sy == 0 || !isLegal(state - 1)) locks[lockCount++] = state;
+
+            //the moves, in the order of MoveType, as TetrisModel.computeNewPosition() makes them
+            int nr = (r + 1 == count) ? 0 : r + 1;
+            tryMove(state, nr, sx + (table.getWidth(p) - table.getWidth(ring[nr])) / 2,
+                    sy + (table.getHeight(p) - table.getHeight(ring[nr])) / 2, ROTATE);
+            tryMove(state, r, sx - 1, sy, LEFT);
+            tryMove(state, r, sx + 1, sy, RIGHT);
+            tryMove(state, r, sx, Math.min(board.placementHeight(table.getPiece(p), sx), sy), DROP);
+            tryMove(state, r, sx, sy - 1, DOWN);
+        }
+        return lockCount;
+    }
+
+    /**
+     * Fills in the legal bitset for every rotation: the piece fits at x,y unless one of its blocks
+     * lands on a filled block, so the blocked y values for each x are an OR of shifted column bitmasks.
+     */
+    private void findLegalStates(TetrisBoard board, int count) {
+        Arrays.fill(columns, 0L);
+        for (int y = 0; y < board.getMaxHeight(); y++) {
+            for (int w = 0; w < board.getWordsPerRow(); w++) {
+                long row = board.getRowWord(y, w);
+                while (row != 0) {
+                    int x = (w << 6) + Long.numberOfTrailingZeros(row);
+                    columns[x * yWords + (y >>> 6)] |= 1L << y;
+                    row &= row - 1;
+                }
+            }
+        }
+        for (int r = 0; r < count; r++) {
+            int p = ring[r];
+            int top = height - table.getHeight(p); //highest y the piece fits at
+            for (int x = 0; x < width; x++) {
+                int base = index(r, x, 0) >>> 6;
+                for (int w = 0; w < yWords; w++) {
+                    long fits = 0;
+                    if (x + table.getWidth(p) <= width && (w << 6) <= top) {
+                        long blocked = 0;
+                        for (int c = 0; c < table.getCellCount(p); c++) {
+                            blocked |= columnBits(x + table.getCellX(p, c), (w << 6) + table.getCellY(p, c));
+                        }
+                        int valid = top - (w << 6) + 1; //y values of this word the piece fits under the top at
+                        fits = ~blocked & ((valid >= Long.SIZE) ? -1L : (1L << valid) - 1);
+                    }
+                    legal[base + w] = fits;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns 64 bits of column x starting at bit y (bits past the top of the board are 0).
+     */
+    private long columnBits(int x, int y) {
+        int w = y >>> 6;
+        int shift = y & 63;
+        if (w >= yWords) return 0L;
+        long bits = columns[x * yWords + w] >>> shift;
+        if (shift != 0 && w + 1 < yWords) bits |= columns[x * yWords + w + 1] << (Long.SIZE - shift);
+        return bits;
+    }
+
+    private boolean isLegal(int state) {
+        return (legal[state >>> 6] & (1L << state)) != 0;
+    }
+
+    /**
+     * Queues the state r,x,y, reached from state by move m, if the piece fits there and it is new.
+     */
+    private void tryMove(int state, int r, int x, int y, int m) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return;
+        int next = index(r, x, y);
+        if (next != state && isLegal(next) && (visited[next >>> 6] & (1L << next)) == 0) visit(next, state, m);
+    }
+
+    /**
+     * Marks a state as reached and queues it.
+     */
+    private void visit(int state, int from, int by) {
+        visited[state >>> 6] |= 1L << state;
+        parent[state] = from;
+        move[state] = (byte) by;
+        queue[visitedCount++] = state;
+    }
+
+    private int index(int r, int x, int y) {
+        return (((r << xBits) | x) << yBits) | y;
+    }
+
+    /**
+     * @return number of states reached by the last search
+     */
+    public int getVisitedCount() {
+        return visitedCount;
+    }
+
+    /**
+     * @return number of rest positions found by the last search
+     */
+    public int getLockCount() {
+        return lockCount;
+    }
+
+    /**
+     * @param i rest position number, in the order found (nearest first)
+     * @return the rotation of the piece at that position
+     */
+    public TetrisPiece getLockPiece(int i) {
+        return table.getPiece(ring[locks[i] >>> (xBits + yBits)]);
+    }
+
+    /**
+     * @param i rest position number
+     * @return x of the piece at that position
+     */
+    public int getLockX(int i) {
+        return (locks[i] >>> yBits) & ((1 << xBits) - 1);
+    }
+
+    /**
+     * @param i rest position number
+     * @return y of the piece at that position
+     */
+    public int getLockY(int i) {
+        return locks[i] & ((1 << yBits) - 1);
+    }
+
+    /**
+     * Returns a shortest sequence of moves from where the piece started to rest position i.
+     *
+     * @param i rest position number
+     * @return the moves, in order
+     */
+    public TetrisModel.MoveType[] getPath(int i) {
+        int length = 0;
+        for (int state = locks[i]; parent[state] >= 0; state = parent[state]) length++;
+        TetrisModel.MoveType[] path = new TetrisModel.MoveType[length];
+        for (int state = locks[i]; parent[state] >= 0; state = parent[state]) {
+            path[--length] = MOVES[move[state]];
+        }
+        return path;
+    }
+}
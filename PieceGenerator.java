@@ -0,0 +1,33 @@
+package model;
+
+import java.io.Serializable;
+
+/** Chooses the sequence of pieces a TetrisModel plays.
+ * Generators are seeded, so the same seed always gives the same stream of pieces;
+ * copy() gives an independent generator that continues the same stream, e.g. for
+ * a search thread that wants to look further ahead than the model's preview.
+ */
+public interface PieceGenerator extends Serializable {
+
+    /**
+     * Restarts the stream of pieces from the given seed.
+     *
+     * @param seed seed for the stream
+     */
+    void setSeed(long seed);
+
+    /**
+     * Returns the next piece in the stream.
+     *
+     * @return the root rotation of the next piece
+     */
+    TetrisPiece next();
+
+    /**
+     * Returns a generator in the same state as this one, which will produce the same pieces
+     * without changing this one.
+     *
+     * @return a copy of this generator
+     */
+    PieceGenerator copy();
+}
@@ -0,0 +1,59 @@
+package model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Interns Tetris pieces so that every distinct shape (in a given rotation) has one canonical
+ * TetrisPiece with a small integer id. Two canonical pieces are equal exactly when their ids are,
+ * so caches, transposition tables and replay encoders can key on getId() instead of on piece objects.
+ *
+ * Ids are handed out in the order shapes are first interned, starting at 0. The rotations of
+ * TetrisPiece.getPieces() are interned as soon as those pieces are built.
+ */
+public final class PieceRegistry {
+
+    private static final HashMap<TetrisPiece, TetrisPiece> canonical = new HashMap<>(); //shape -> canonical piece
+    private static volatile TetrisPiece[] byId = new TetrisPiece[0]; //canonical piece for each id
+
+    private PieceRegistry() {
+    }
+
+    /**
+     * Returns the canonical piece with the same shape as the given one. If the shape has not
+     * been seen before, the given piece becomes canonical and is given the next id.
+     *
+     * @param piece piece to intern
+     * @return the canonical piece for its shape
+     */
+    public static synchronized TetrisPiece intern(TetrisPiece piece) {
+        if (piece.getId() >= 0) return piece;
+        TetrisPiece existing = canonical.get(piece);
+        if (existing != null) return existing;
+
+        TetrisPiece[] ids = Arrays.copyOf(byId, byId.length + 1);
+        piece.setId(byId.length);
+        ids[piece.getId()] = piece;
+        canonical.put(piece, piece);
+        byId = ids;
+        return piece;
+    }
+
+    /**
+     * Returns the canonical piece with the given id.
+     *
+     * @param id piece id
+     * @return canonical piece
+     */
+    public static TetrisPiece get(int id) {
+        return byId[id];
+    }
+
+    /**
+     * Returns the number of ids handed out so far; ids run from 0 to size()-1.
+     *
+     * @return number of canonical pieces
+     */
+    public static int size() {
+        return byId.length;
+    }
+}
@@ -0,0 +1,261 @@
+package model;
+
+import java.io.Serializable;
+
+/** Flat, precomputed tables describing every rotation of a set of pieces.
+ * Each (piece, rotation) pair has an index, piece * getMaxRotations() + rotation, and everything
+ * search code needs about it is stored in primitive arrays at that index: the body offsets,
+ * the skirt (lowest y per column), the top profile (highest y + 1 per column), the width and
+ * height, and the row bitmasks used for bitboard collision tests.
+ * Hot loops can read these directly instead of walking TetrisPoint arrays and next links.
+ *
+ * The tables are built once from the rotation rings made by TetrisPiece.makeFastRotations().
+ * Every ring has a table of its own, from TetrisPiece.getTable(), in which a piece's index is its
+ * rotation index; the board, BatchEvaluator and PathFinder read pieces through it. standard() and
+ * Polyominoes.getTable() give a table over a whole set of pieces, for code that works by piece id.
+ */
+public final class PieceTable implements Serializable {
+
+    private final int pieceCount; //number of distinct pieces (rotation rings)
+    private final int maxRotations; //rotations in the longest ring
+    private final int maxCells; //blocks in the largest piece
+    private final int maxWidth; //widest rotation
+    private final int maxHeight; //tallest rotation
+
+    private final TetrisPiece[] pieces; //the piece object at each index, null where a ring is shorter
+    private final int[] rotationCount; //rotations of each piece
+    private final int[] next; //index of the next (counterclockwise) rotation
+    private final byte[] cellCount; //blocks in each rotation
+    private final byte[] body; //x,y pairs, maxCells pairs per index
+    private final byte[] width; //width of each rotation
+    private final byte[] height; //height of each rotation
+    private final int[] lowestY; //skirt, maxWidth entries per index
+    private final int[] highestY; //top profile, maxWidth entries per index
+    private final long[] rowMasks; //row bitmasks, maxHeight entries per index
+
+    private static PieceTable standard; //tables for TetrisPiece.getPieces()
+
+    /**
+     * Builds the tables for the given pieces. Each piece must be the root of a rotation ring
+     * made by TetrisPiece.makeFastRotations().
+     *
+     * @param roots one rotation of each piece
+     */
+    public PieceTable(TetrisPiece[] roots) {
+        pieceCount = roots.length;
+        rotationCount = new int[pieceCount];
+        int rotations = 1, cells = 1, w = 1, h = 1;
+        for (int id = 0; id < pieceCount; id++) {
+            TetrisPiece piece = roots[id];
+            do {
+                rotationCount[id]++;
+                cells = Math.max(cells, piece.getBody().length);
+                w = Math.max(w, piece.getWidth());
+                h = Math.max(h, piece.getHeight());
+                piece = piece.fastRotation();
+            } while (piece != null && piece != roots[id]);
+            rotations = Math.max(rotations, rotationCount[id]);
+        }
+        maxRotations = rotations;
+        maxCells = cells;
+        maxWidth = w;
+        maxHeight = h;
+
+        int size = pieceCount * maxRotations;
+        pieces = new TetrisPiece[size];
+        next = new int[size];
+        cellCount = new byte[size];
+        body = new byte[size * maxCells * 2];
+        width = new byte[size];
+        height = new byte[size];
+        lowestY = new int[size * maxWidth];
+        highestY = new int[size * maxWidth];
+        rowMasks = new long[size * maxHeight];
+
+        for (int id = 0; id < pieceCount; id++) {
+            TetrisPiece piece = roots[id];
+            for (int r = 0; r < rotationCount[id]; r++, piece = piece.fastRotation()) {
+                int i = index(id, r);
+                pieces[i] = piece;
+                next[i] = index(id, (r + 1) % rotationCount[id]);
+                TetrisPoint[] points = piece.getBody();
+                cellCount[i] = (byte) points.length;
+                for (int c = 0; c < points.length; c++) {
+                    body[(i * maxCells + c) * 2] = (byte) points[c].x;
+                    body[(i * maxCells + c) * 2 + 1] = (byte) points[c].y;
+                }
+                width[i] = (byte) piece.getWidth();
+                height[i] = (byte) piece.getHeight();
+                System.arraycopy(piece.getLowestYVals(), 0, lowestY, i * maxWidth, piece.getWidth());
+                System.arraycopy(piece.getHighestYVals(), 0, highestY, i * maxWidth, piece.getWidth());
+                System.arraycopy(piece.getRowMasks(), 0, rowMasks, i * maxHeight, piece.getHeight());
+            }
+        }
+    }
+
+    /**
+     * Returns the tables for the standard pieces of TetrisPiece.getPieces(), in the same order.
+     *
+     * @return the standard piece tables
+     */
+    public static synchronized PieceTable standard() {
+        if (standard == null) {
+            standard = new PieceTable(TetrisPiece.getPieces());
+        }
+        return standard;
+    }
+
+    /**
+     * Returns the table index of the given rotation of the given piece.
+     *
+     * @param id       piece number, in the order the roots were given
+     * @param rotation rotation number, 0 for the root
+     * @return table index
+     */
+    public int index(int id, int rotation) {
+        return id * maxRotations + rotation;
+    }
+
+    /**
+     * Returns the table index of the given piece object, or -1 if it is not in the table.
+     *
+     * @param piece a piece from one of the rotation rings
+     * @return table index, or -1
+     */
+    public int indexOf(TetrisPiece piece) {
+        int r = piece.getRotationIndex();
+        if (r >= maxRotations) return -1;
+        for (int id = 0; id < pieceCount; id++) {
+            if (pieces[index(id, r)] == piece) return index(id, r);
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of pieces (rotation rings) in the table
+     */
+    public int getPieceCount() {
+        return pieceCount;
+    }
+
+    /**
+     * @return the largest number of rotations of any piece; the stride between piece ids
+     */
+    public int getMaxRotations() {
+        return maxRotations;
+    }
+
+    /**
+     * @return the number of blocks in the largest piece; the stride of the body table
+     */
+    public int getMaxCells() {
+        return maxCells;
+    }
+
+    /**
+     * @return the width of the widest rotation; the stride of the skirt and top tables
+     */
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * @return the height of the tallest rotation; the stride of the row mask table
+     */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * @param id piece number
+     * @return number of distinct rotations of the piece
+     */
+    public int getRotationCount(int id) {
+        return rotationCount[id];
+    }
+
+    /**
+     * @param index table index
+     * @return the piece object at the index, or null if the piece has fewer rotations
+     */
+    public TetrisPiece getPiece(int index) {
+        return pieces[index];
+    }
+
+    /**
+     * @param index table index
+     * @return table index of the next (counterclockwise) rotation
+     */
+    public int getNext(int index) {
+        return next[index];
+    }
+
+    /**
+     * @param index table index
+     * @return number of blocks in the rotation
+     */
+    public int getCellCount(int index) {
+        return cellCount[index];
+    }
+
+    /**
+     * @param index table index
+     * @param cell  block number, below getCellCount(index)
+     * @return x offset of the block
+     */
+    public int getCellX(int index, int cell) {
+        return body[(index * maxCells + cell) * 2];
+    }
+
+    /**
+     * @param index table index
+     * @param cell  block number, below getCellCount(index)
+     * @return y offset of the block
+     */
+    public int getCellY(int index, int cell) {
+        return body[(index * maxCells + cell) * 2 + 1];
+    }
+
+    /**
+     * @param index table index
+     * @return width of the rotation
+     */
+    public int getWidth(int index) {
+        return width[index];
+    }
+
+    /**
+     * @param index table index
+     * @return height of the rotation
+     */
+    public int getHeight(int index) {
+        return height[index];
+    }
+
+    /**
+     * @param index table index
+     * @param x     column of the piece, below getWidth(index)
+     * @return lowest y of the body in that column
+     */
+    public int getLowestY(int index, int x) {
+        return lowestY[index * maxWidth + x];
+    }
+
+    /**
+     * @param index table index
+     * @param x     column of the piece, below getWidth(index)
+     * @return highest y of the body in that column, plus one
+     */
+    public int getHighestY(int index, int x) {
+        return highestY[index * maxWidth + x];
+    }
+
+    /**
+     * @param index table index
+     * @param y     row of the piece, below getHeight(index)
+     * @return bitmask of the blocks in that row
+     */
+    public long getRowMask(int index, int y) {
+        return rowMasks[index * maxHeight + y];
+    }
+}
@@ -0,0 +1,103 @@
+package model;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Runs a pilot on a background thread, so a slow search never holds up the thread that ticks the model.
+ * The model submits a request whenever it needs a new plan, tagged with a generation number that it
+ * bumps every time the board or piece changes. The pilot works on a private copy of the board and
+ * posts its plan to a lock-free queue, which the model polls on each tick without ever waiting.
+ * Plans for an old generation are thrown away, and requests that are already out of date when the
+ * background thread gets to them are skipped.
+ */
+public class PilotRunner {
+
+    private final TetrisPilot pilot; //the pilot doing the search
+    private final ExecutorService executor; //the background thread
+    private final ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<>(); //finished plans
+    private volatile long latest = Long.MIN_VALUE; //generation of the newest request
+
+    /** A finished plan and the generation it was made for.
+     */
+    private static final class Result {
+        final long generation;
+        final MovePlan plan;
+
+        Result(long generation, MovePlan plan) {
+            this.generation = generation;
+            this.plan = plan;
+        }
+    }
+
+    /**
+     * Constructor for a runner with its own background (daemon) thread
+     *
+     * @param pilot the pilot to run
+     */
+    public PilotRunner(TetrisPilot pilot) {
+        this.pilot = pilot;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "pilot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Asks for a plan for the piece on the board. The board is copied, so the caller may carry on
+     * changing it straight away. Any earlier request that has not started yet is skipped.
+     *
+     * @param generation tag for the request; must be larger than that of any earlier request
+     * @param board      the committed board, without the piece
+     * @param piece      the current piece
+     * @param preview    the pieces that come after the current one
+     * @param currentX   where the piece is (X position)
+     * @param currentY   where the piece is (Y position)
+     */
+    public void submit(long generation, TetrisBoard board, TetrisPiece piece, TetrisPiece[] preview, int currentX, int currentY) {
+        BoardState state = board.toState();
+        TetrisPiece[] next = preview.clone();
+        latest = generation;
+        executor.execute(() -> {
+            if (generation != latest) return; //out of date before it started
+            MovePlan plan = pilot.planMoves(state.toBoard(), piece, next, currentX, currentY);
+            results.add(new Result(generation, plan));
+        });
+    }
+
+    /**
+     * Returns the plan for the given generation if it has arrived, discarding any older plans. Never waits.
+     *
+     * @param generation the generation wanted
+     * @return the plan, or null if it is not ready yet
+     */
+    public MovePlan poll(long generation) {
+        MovePlan found = null;
+        Result result;
+        while ((result = results.poll()) != null) {
+            if (result.generation == generation) found = result.plan;
+        }
+        return found;
+    }
+
+    /**
+     * Stops the background thread: requests that have not started are dropped, and this waits for a
+     * search in progress to finish, so the pilot is no longer in use when it returns.
+     * Plans not yet polled are discarded.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) break;
+            } catch (InterruptedException e) {
+                interrupted = true; //keep waiting, but pass the interrupt on afterwards
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        results.clear();
+    }
+}
@@ -0,0 +1,266 @@
+package model;
+
+import java.io.*;
+import java.util.*;
+
+/** Generates piece sets made of every polyomino of a given size, e.g. the 18 one-sided
+ * pentominoes, for stress-testing pilots with larger pieces than the standard tetrominoes.
+ *
+ * Shapes are enumerated once by growing each (n-1)-omino by one block in every possible way.
+ * The resulting rotation rings (see TetrisPiece.makeFastRotations()) and PieceTable are kept
+ * in memory, and the root shapes can be cached in a directory so that later runs skip the
+ * enumeration altogether.
+ */
+public final class Polyominoes {
+
+    /**
+     * Which shapes count as different pieces.
+     */
+    public enum Kind {
+        FIXED,      // every orientation is its own piece (19 tetrominoes)
+        ONE_SIDED,  // rotations are the same piece, mirror images are not (7 tetrominoes, as in Tetris)
+        FREE        // rotations and mirror images are the same piece (5 tetrominoes)
+    }
+
+    private static final HashMap<String, TetrisPiece[]> pieceCache = new HashMap<>(); //rings by "kind-n"
+    private static final HashMap<String, PieceTable> tableCache = new HashMap<>(); //tables by "kind-n"
+
+    private Polyominoes() {
+    }
+
+    /**
+     * Returns the root rotation of every n-omino of the given kind, each linked into its rotation ring.
+     * The set is enumerated on the first call and kept for later calls.
+     *
+     * @param n    blocks per piece
+     * @param kind which shapes count as different pieces
+     * @return one piece per shape, in a fixed order
+     */
+    public static synchronized TetrisPiece[] getPieces(int n, Kind kind) {
+        String key = kind + "-" + n;
+        TetrisPiece[] pieces = pieceCache.get(key);
+        if (pieces == null) {
+            pieces = makeRings(enumerate(n, kind));
+            pieceCache.put(key, pieces);
+        }
+        return pieces;
+    }
+
+    /**
+     * Like getPieces(n, kind), but first looks for the shapes in a cache file in the given directory,
+     * and writes that file after enumerating them if it is missing. The cache file is only a shortcut:
+     * if it can't be read the shapes are enumerated instead, and if it can't be written it is skipped.
+     *
+     * @param n        blocks per piece
+     * @param kind     which shapes count as different pieces
+     * @param cacheDir directory holding the cache files
+     * @return one piece per shape, in a fixed order
+     */
+    public static synchronized TetrisPiece[] getPieces(int n, Kind kind, File cacheDir) {
+        String key = kind + "-" + n;
+        TetrisPiece[] pieces = pieceCache.get(key);
+        if (pieces != null) return pieces;
+
+        File file = new File(cacheDir, "polyominoes-" + kind.name().toLowerCase() + "-" + n + ".txt");
+        List<String> shapes = null;
+        if (file.exists()) {
+            try {
+                shapes = readShapes(file);
+            } catch (IOException e) {
+                shapes = null; //fall back to enumerating them again
+            }
+        }
+        if (shapes == null) {
+            shapes = enumerate(n, kind);
+            try {
+                writeShapes(file, shapes);
+            } catch (IOException e) {
+                //no cache this time (e.g. a read-only or missing directory); the pieces are fine without it
+            }
+        }
+        pieces = makeRings(shapes);
+        pieceCache.put(key, pieces);
+        return pieces;
+    }
+
+    /**
+     * Returns the PieceTable for getPieces(n, kind), built on the first call.
+     *
+     * @param n    blocks per piece
+     * @param kind which shapes count as different pieces
+     * @return tables of every rotation of every piece
+     */
+    public static synchronized PieceTable getTable(int n, Kind kind) {
+        String key = kind + "-" + n;
+        PieceTable table = tableCache.get(key);
+        if (table == null) {
+            table = new PieceTable(getPieces(n, kind));
+            tableCache.put(key, table);
+        }
+        return table;
+    }
+
+    /**
+     * Enumerates the n-ominoes of the given kind, as bodies in the "x y  x y ..." format
+     * taken by the TetrisPiece(String) constructor.
+     */
+    private static List<String> enumerate(int n, Kind kind) {
+        if (n < 1) throw new IllegalArgumentException("Bad polyomino size: " + n);
+
+        //grow every fixed (n-1)-omino by one block, for n = 2, 3, ...
+        Set<Shape> fixed = new HashSet<>();
+        fixed.add(new Shape(new int[]{0, 0}));
+        for (int size = 2; size <= n; size++) {
+            Set<Shape> grown = new HashSet<>();
+            for (Shape shape : fixed) {
+                for (int c = 0; c < size - 1; c++) {
+                    int x = shape.xy[2 * c];
+                    int y = shape.xy[2 * c + 1];
+                    grow(shape, x + 1, y, grown);
+                    grow(shape, x - 1, y, grown);
+                    grow(shape, x, y + 1, grown);
+                    grow(shape, x, y - 1, grown);
+                }
+            }
+            fixed = grown;
+        }
+
+        List<Shape> sorted = new ArrayList<>(fixed);
+        Collections.sort(sorted);
+        List<String> result = new ArrayList<>();
+        Set<Shape> seen = new HashSet<>();
+        for (Shape shape : sorted) {
+            if (seen.contains(shape)) continue;
+            result.add(shape.toString());
+            if (kind == Kind.FIXED) continue;
+            //every rotation (and, for free pieces, every mirrored rotation) is the same piece
+            Shape turned = shape;
+            for (int r = 0; r < 4; r++, turned = turned.rotate()) {
+                seen.add(turned);
+                if (kind == Kind.FREE) seen.add(turned.mirror());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the shape plus the block at x,y to the set, if that block is not already in the shape.
+     */
+    private static void grow(Shape shape, int x, int y, Set<Shape> into) {
+        for (int c = 0; c < shape.xy.length; c += 2) {
+            if (shape.xy[c] == x && shape.xy[c + 1] == y) return;
+        }
+        int[] xy = Arrays.copyOf(shape.xy, shape.xy.length + 2);
+        xy[xy.length - 2] = x;
+        xy[xy.length - 1] = y;
+        into.add(new Shape(xy));
+    }
+
+    /**
+     * Turns each body into a piece linked into its rotation ring.
+     */
+    private static TetrisPiece[] makeRings(List<String> shapes) {
+        TetrisPiece[] pieces = new TetrisPiece[shapes.size()];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = TetrisPiece.makeFastRotations(new TetrisPiece(shapes.get(i)));
+        }
+        return pieces;
+    }
+
+    /**
+     * Reads bodies written by writeShapes(), one per line; lines starting with # are comments.
+     */
+    private static List<String> readShapes(File file) throws IOException {
+        List<String> shapes = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isBlank() && !line.startsWith("#")) shapes.add(line.trim());
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Writes one body per line.
+     */
+    private static void writeShapes(File file, List<String> shapes) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("# " + shapes.size() + " shapes");
+            for (String shape : shapes) out.println(shape);
+        }
+    }
+
+    /** A polyomino during enumeration: its blocks as sorted x,y pairs, shifted so min x and min y are 0.
+     */
+    private static final class Shape implements Comparable<Shape> {
+        private final int[] xy;
+        private final int hash;
+
+        Shape(int[] points) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            for (int c = 0; c < points.length; c += 2) {
+                minX = Math.min(minX, points[c]);
+                minY = Math.min(minY, points[c + 1]);
+            }
+            //sort the blocks by x then y, encoded as single longs
+            long[] cells = new long[points.length / 2];
+            for (int c = 0; c < cells.length; c++) {
+                cells[c] = ((long) (points[2 * c] - minX) << 32) | (points[2 * c + 1] - minY);
+            }
+            Arrays.sort(cells);
+            xy = new int[points.length];
+            for (int c = 0; c < cells.length; c++) {
+                xy[2 * c] = (int) (cells[c] >>> 32);
+                xy[2 * c + 1] = (int) cells[c];
+            }
+            hash = Arrays.hashCode(xy);
+        }
+
+        /**
+         * Returns the shape turned 90 degrees counter-clockwise, as TetrisPiece.computeNextRotation() does.
+         */
+        Shape rotate() {
+            int[] turned = new int[xy.length];
+            for (int c = 0; c < xy.length; c += 2) {
+                turned[c] = -xy[c + 1];
+                turned[c + 1] = xy[c];
+            }
+            return new Shape(turned);
+        }
+
+        /**
+         * Returns the mirror image of the shape.
+         */
+        Shape mirror() {
+            int[] flipped = xy.clone();
+            for (int c = 0; c < xy.length; c += 2) flipped[c] = -xy[c];
+            return new Shape(flipped);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Shape && Arrays.equals(xy, ((Shape) obj).xy);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public int compareTo(Shape o) {
+            return Arrays.compare(xy, o.xy);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buff = new StringBuilder();
+            for (int c = 0; c < xy.length; c += 2) {
+                if (c > 0) buff.append("  ");
+                buff.append(xy[c]).append(' ').append(xy[c + 1]);
+            }
+            return buff.toString();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package model;
+
+import java.io.Serializable;
+
+/** The SplitMix64 random number generator: a 64-bit counter stepped by a fixed odd constant, with
+ * each value scrambled by mix(). Small, fast and fully determined by its seed, which is what the
+ * piece generators need to replay a game; mix() on its own also makes the board's Zobrist keys.
+ */
+final class SplitMix64 implements Serializable {
+
+    static final long GAMMA = 0x9E3779B97F4A7C15L; //added to the state at each step
+
+    private long state;
+
+    /**
+     * Constructor for a generator
+     *
+     * @param seed seed for the stream
+     */
+    SplitMix64(long seed) {
+        state = seed;
+    }
+
+    /**
+     * Restarts the stream from the given seed.
+     *
+     * @param seed seed for the stream
+     */
+    void setSeed(long seed) {
+        state = seed;
+    }
+
+    /**
+     * Advances the state and returns the next random long.
+     *
+     * @return the next value of the stream
+     */
+    long nextLong() {
+        state += GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * Returns the next random int from 0 (inclusive) to bound (exclusive).
+     *
+     * @param bound number of possible values
+     * @return the next value, reduced to the range
+     */
+    int nextInt(int bound) {
+        return (int) ((nextLong() >>> 1) % bound);
+    }
+
+    /**
+     * @return a generator in the same state, which will produce the same stream without changing this one
+     */
+    SplitMix64 copy() {
+        return new SplitMix64(state);
+    }
+
+    /**
+     * Scrambles a 64-bit value so that every bit of the result depends on every bit of z.
+     *
+     * @param z the value to scramble
+     * @return the scrambled value
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
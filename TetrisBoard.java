@@ -13,7 +13,11 @@ import java.util.stream.Collectors;
 public class TetrisBoard implements Serializable {
     private int width; //board height and width
     private int height;
-    protected boolean[][] tetrisGrid; //board grid
+    protected long[] tetrisGrid; //board grid, a bitmask of `words` longs per row slot (bit x set means column x is filled)
+    protected int[] rowIndex; //slot in tetrisGrid holding each row y, so rows can be moved without copying them
+    private int words; //longs per row; 1 for boards up to 64 wide
+    private long lastWordMask; //mask of the columns that exist in the last word of a row
+    private long[] unsettled; //scratch for makeColumnHeights(), one word per row word
     boolean committed; //indicates if the board is in a 'committed' state, meaning can't undo!
 
     //In your implementation, you'll want to keep counts of filled grid positions in each column.
@@ -21,13 +25,34 @@ public class TetrisBoard implements Serializable {
     private int colCounts[];
     //You will also want to keep counts by row.
     //A completely filled row can be cleared from the board (and points are awarded)!
+    //Like tetrisGrid, this is indexed by row slot, so the count travels with its row.
     private int rowCounts[];
-
-    //In addition, you'll need to allocate some space to back up your grid data.
-    //This will be important when you implement "undo".
-    private boolean[][] backupGrid; //to back up your grid
-    private int backupColCounts[]; //to back up your row counts
-    private int backupRowCounts[]; //to back up your column counts
+    private int[] spareRows; //scratch for the row slots being recycled by a clear
+    //The tallest column height, kept up to date alongside the tallies.
+    private int maxHeight;
+    //Zobrist hash of the filled blocks: the XOR of cellKey(x,y) over every filled x,y.
+    private long hash;
+
+    //Rather than backing up the whole grid, undo keeps a journal of what each
+    //placePiece() and clearRows() changed, and plays it backwards.
+    //The journal is a ring of historyDepth + 1 entries, all allocated up front; each entry
+    //covers one placePiece() and the clearRows() that follows it. The spare entry holds the
+    //uncommitted changes, so trying out a piece never evicts a committed placement.
+    private int historyDepth; //number of committed entries kept
+    private int ringSize; //entries in the ring: historyDepth + 1
+    private int head; //entry holding the most recent change
+    private int historySize; //entries that can be undone, counting back from head
+    private int redoSize; //entries past head that can be redone
+    private boolean pending; //while uncommitted: head holds the changes made since the last commit
+    private TetrisPiece[] journalPiece; //piece written by each placement, or null if nothing was written
+    private int[] journalX, journalY; //where that piece was written
+    private int backupColCounts[]; //column heights under the piece before it was written (width per entry)
+    private int[] backupMaxHeight; //to back up the tallest column height
+    private int[] journalCleared; //number of rows removed by clearRows()
+    private int[] journalClearedRows; //the y of each removed row (before removal), bottom-up (height per entry)
+    private int[] journalClearTop; //the stack height when the rows were removed
+
+    public static final int DEFAULT_HISTORY_DEPTH = 1; //enough for the single-step undo()
 
     //error types (to be returned by the place function)
     public static final int ADD_OK = 0;
@@ -37,35 +62,68 @@ public class TetrisBoard implements Serializable {
 
     /**
      * Constructor for an empty board of the given width and height measured in blocks.
+     * Each row is stored as a bitmask of one long per 64 columns.
      *
      * @param aWidth  width
      * @param aHeight height
      */
     public TetrisBoard(int aWidth, int aHeight) {
+        this(aWidth, aHeight, DEFAULT_HISTORY_DEPTH);
+    }
+
+    /**
+     * Constructor for an empty board that remembers up to historyDepth placements
+     * for undo(n) and redo(n).
+     *
+     * @param aWidth       width
+     * @param aHeight      height
+     * @param historyDepth number of placements that can be undone
+     */
+    public TetrisBoard(int aWidth, int aHeight, int historyDepth) {
+        if (aWidth < 1 || aHeight < 1)
+            throw new IllegalArgumentException("Bad board size: " + aWidth + "x" + aHeight);
+        if (historyDepth < 1)
+            throw new IllegalArgumentException("Bad history depth: " + historyDepth);
         width = aWidth;
         height = aHeight;
-        tetrisGrid = new boolean[width][height];
+        words = (width + Long.SIZE - 1) / Long.SIZE;
+        lastWordMask = (width % Long.SIZE == 0) ? -1L : (1L << width) - 1;
+        tetrisGrid = new long[height * words];
+        rowIndex = new int[height];
+        for (int y = 0; y < height; y++) rowIndex[y] = y;
+        spareRows = new int[height];
+        unsettled = new long[words];
 
         colCounts = new int[width];
         rowCounts = new int[height];
 
-        //init backup storage, for undo
-        backupGrid = new boolean[width][height];
-        backupColCounts = new int[width];
-        backupRowCounts = new int[height];
+        //init journal storage, for undo
+        this.historyDepth = historyDepth;
+        ringSize = historyDepth + 1;
+        journalPiece = new TetrisPiece[ringSize];
+        journalX = new int[ringSize];
+        journalY = new int[ringSize];
+        backupColCounts = new int[ringSize * width];
+        backupMaxHeight = new int[ringSize];
+        journalCleared = new int[ringSize];
+        journalClearedRows = new int[ringSize * height];
+        journalClearTop = new int[ringSize];
     }
 
     /**
      * Helper to fill new game grid with empty values
      */
     public void newGame() {
-        for (int x = 0; x < tetrisGrid.length; x++) {
-            for (int y = 0; y < tetrisGrid[x].length; y++) {
-                tetrisGrid[x][y] = false;
-            }
+        for (int y = 0; y < maxHeight; y++) { //rows above the stack are already empty
+            int slot = rowIndex[y];
+            Arrays.fill(tetrisGrid, slot * words, (slot + 1) * words, 0L);
+            rowCounts[slot] = 0;
         }
         Arrays.fill(colCounts, 0);
-        Arrays.fill(rowCounts, 0);
+        maxHeight = 0;
+        hash = 0L;
+        historySize = 0;
+        redoSize = 0;
         committed = true;
     }
 
@@ -90,7 +148,7 @@ public class TetrisBoard implements Serializable {
      * @return the y position of the last filled square in the tallest column
      */
     public int getMaxHeight() {
-        return Arrays.stream(colCounts).max().getAsInt();
+        return maxHeight;
     }
 
     /**
@@ -111,7 +169,7 @@ public class TetrisBoard implements Serializable {
      * @return the number of filled blocks in row y
      */
     public int getRowWidth(int y) {
-        return rowCounts[y];
+        return rowCounts[rowIndex[y]];
     }
 
     /**
@@ -123,33 +181,236 @@ public class TetrisBoard implements Serializable {
      * @return true if the given block at x,y is filled, else false
      */
     public boolean getGrid(int x, int y) {
-        if (x >= width || x < 0 || y >= height || y < 0 || tetrisGrid[x][y])
+        if (x >= width || x < 0 || y >= height || y < 0)
             return true;
-        return false;
+        return (tetrisGrid[rowIndex[y] * words + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns row y as a bitmask, bit x set if the block at x,y is filled.
+     * Only the first 64 columns fit in the mask; use getRowWord() on wider boards.
+     *
+     * @param y grid row, y
+     * @return the blocks in row y
+     */
+    public long getRowMask(int y) {
+        return tetrisGrid[rowIndex[y] * words];
+    }
+
+    /**
+     * Returns one word of row y: bit i is set if the block at x = 64*w + i is filled.
+     *
+     * @param y grid row, y
+     * @param w word of the row, from 0 to getWordsPerRow()-1
+     * @return the blocks in that word of row y
+     */
+    public long getRowWord(int y, int w) {
+        return tetrisGrid[rowIndex[y] * words + w];
+    }
+
+    /**
+     * Returns the number of longs used to store each row (one per 64 columns).
+     *
+     * @return words per row
+     */
+    public int getWordsPerRow() {
+        return words;
+    }
+
+    /**
+     * Overwrites row y with the given bitmask. Only the row count is kept up to date;
+     * call settleTallies() once all rows are written. Used to load a board from another representation.
+     *
+     * @param y   grid row, y
+     * @param row the blocks in row y
+     */
+    void setRowMask(int y, long row) {
+        setRowWord(y, 0, row);
+    }
+
+    /**
+     * Overwrites one word of row y, like setRowMask().
+     *
+     * @param y    grid row, y
+     * @param w    word of the row
+     * @param word the blocks in that word of row y
+     */
+    void setRowWord(int y, int w, long word) {
+        int i = rowIndex[y] * words + w;
+        if (w == words - 1) word &= lastWordMask;
+        hash ^= wordHash(tetrisGrid[i], w, y) ^ wordHash(word, w, y);
+        rowCounts[rowIndex[y]] += Long.bitCount(word) - Long.bitCount(tetrisGrid[i]);
+        tetrisGrid[i] = word;
+    }
+
+    /**
+     * Recomputes the column heights and max height after rows were written with setRowMask().
+     *
+     * @param top a bound on the height of the stack; every row at or above it must be empty
+     */
+    void settleTallies(int top) {
+        maxHeight = top;
+        makeColumnHeights();
+    }
+
+    /**
+     * Returns an immutable snapshot of the blocks on the board, which search code
+     * can share between threads and extend with TetrisSnapshot.withPiece().
+     *
+     * @return snapshot of the board
+     */
+    public TetrisSnapshot snapshot() {
+        return TetrisSnapshot.of(this);
+    }
+
+    /**
+     * Returns a compact, immutable copy of the blocks on the board, for storing many positions.
+     *
+     * @return packed state of the board
+     */
+    public BoardState toState() {
+        return BoardState.of(this);
     }
 
     /**
      * Given a piece and an x, returns the y value where the piece will come to rest
      * if it were dropped straight down at that x.
      * <p>
-     * Use getLowestYVals and the col heights (getColumnHeight) to compute this quickly!
+     * Computed from the piece's skirt (see PieceTable) and the col heights (getColumnHeight), so the
+     * board is not modified.
      *
      * @param piece piece to place
      * @param x     column of grid
      * @return the y value where the piece will come to rest
      */
     public int placementHeight(TetrisPiece piece, int x) {
-        int[] lowest = piece.getLowestYVals();
-        makeHeightAndWidthArrays();
-        int current_height = getColumnHeight(x);
-        int new_height = lowest[0] + current_height;
-        while (placePiece(piece, x, new_height) == ADD_BAD){
-            new_height += 1;
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int new_height = 0;
+        //the piece rests on whichever column it meets first on the way down
+        for (int i = 0; i < table.getWidth(p); i++) {
+            int y = colCounts[x + i] - table.getLowestY(p, i);
+            if (y > new_height) new_height = y;
         }
-        undo();
         return new_height;
     }
 
+    /**
+     * Drops every rotation of the piece straight down in every column, without modifying the board,
+     * and stores the landing y, the rows cleared and the resulting column heights of each drop in out
+     * (only the columns under the piece, unless the drop clears rows).
+     * Drops that would stick out of the top of the board are left out.
+     * This does the work of a placementHeight(), placePiece(), clearRows() and undo() per candidate
+     * from the tallies alone, only looking at the grid for columns whose top row gets cleared.
+     *
+     * @param piece any rotation of the piece; the rotations are visited from this one, in ring order
+     * @param out   results to fill in (previous contents are discarded)
+     * @return number of candidates stored
+     */
+    public int dropAll(TetrisPiece piece, DropResults out) {
+        out.reset(width, colCounts);
+        PieceTable table = piece.getTable();
+        int start = piece.getRotationIndex();
+        int p = start;
+        do {
+            int pw = table.getWidth(p);
+            int ph = table.getHeight(p);
+            for (int x = 0; x + pw <= width; x++) {
+                int y = 0;
+                for (int i = 0; i < pw; i++) {
+                    int rest = colCounts[x + i] - table.getLowestY(p, i);
+                    if (rest > y) y = rest;
+                }
+                if (y + ph > height) continue;
+
+                //a row is cleared if the piece fills the rest of it
+                long clearedRows = 0; //bit r set if piece row r clears
+                for (int r = 0; r < ph; r++) {
+                    if (rowCounts[rowIndex[y + r]] + Long.bitCount(table.getRowMask(p, r)) == width) clearedRows |= 1L << r;
+                }
+
+                //only the columns under the piece change, unless rows clear
+                int n = (clearedRows == 0) ? out.add(table.getPiece(p), x, y, x, pw) : out.add(table.getPiece(p), x, y, 0, width);
+                int[] heights = out.getHeights();
+                int base = out.getOffset(n) + x - out.getFirstColumn(n);
+                for (int i = 0; i < pw; i++) {
+                    int top = y + table.getHighestY(p, i);
+                    if (heights[base + i] < top) heights[base + i] = top;
+                }
+                if (clearedRows != 0) {
+                    out.setRowsCleared(n, Long.bitCount(clearedRows));
+                    settleDropHeights(table, p, x, y, clearedRows, heights, out.getOffset(n));
+                }
+            }
+            p = table.getNext(p);
+        } while (p != start);
+        return out.getCount();
+    }
+
+    /**
+     * Lowers the column heights of a drop (as written by dropAll) to account for the rows it clears.
+     * A column whose top block survives just drops by the number of cleared rows below it;
+     * a column whose top block is cleared is walked down to the next surviving block.
+     */
+    private void settleDropHeights(PieceTable table, int p, int x, int y, long clearedRows, int[] heights, int base) {
+        int pw = table.getWidth(p);
+        int ph = table.getHeight(p);
+        for (int c = 0; c < width; c++) {
+            int t = heights[base + c] - 1;
+            while (t >= 0) {
+                int r = t - y;
+                boolean inRows = r >= 0 && r < ph;
+                if (!inRows || (clearedRows & (1L << r)) == 0) {
+                    boolean inPiece = inRows && c >= x && c < x + pw
+                            && ((table.getRowMask(p, r) >>> (c - x)) & 1) != 0;
+                    if (inPiece || (tetrisGrid[rowIndex[t] * words + (c >>> 6)] & (1L << c)) != 0) break;
+                }
+                t--;
+            }
+            //cleared rows below the surviving top block bring it down
+            int below = (t < y) ? 0 : Long.bitCount(clearedRows & ((t - y >= Long.SIZE) ? -1L : (1L << (t - y)) - 1));
+            heights[base + c] = t + 1 - below;
+        }
+    }
+
+    /**
+     * Returns true if the piece could be placed at x,y: it is inside the board and
+     * does not overlap any blocks. The board is not modified (not even its committed state).
+     *
+     * @param piece piece to place
+     * @param x     placement position, x
+     * @param y     placement position, y
+     * @return true if placePiece() would succeed
+     */
+    public boolean canPlace(TetrisPiece piece, int x, int y) {
+        return checkPlacement(piece, x, y) == ADD_OK;
+    }
+
+    /**
+     * Checks a placement without writing anything.
+     *
+     * @return ADD_OK if the placement is legal, else ADD_OUT_BOUNDS or ADD_BAD
+     */
+    private int checkPlacement(TetrisPiece piece, int x, int y) {
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int ph = table.getHeight(p);
+        if (x < 0 || y < 0 || x + table.getWidth(p) > width || y + ph > height) {
+            return ADD_OUT_BOUNDS;
+        }
+        int w0 = x >>> 6;
+        int shift = x & 63;
+        for (int r = 0; r < ph; r++) {
+            long mask = table.getRowMask(p, r);
+            int i = rowIndex[y + r] * words + w0;
+            long hi = highPart(mask, shift); //a piece can straddle two words of a wide row
+            if ((tetrisGrid[i] & (mask << shift)) != 0 || (hi != 0 && (tetrisGrid[i + 1] & hi) != 0)) {
+                return ADD_BAD;
+            }
+        }
+        return ADD_OK;
+    }
+
     /**
      * Attempts to add the body of a piece to the board. Copies the piece blocks into the board grid.
      * Returns ADD_OK for a regular placement, or ADD_ROW_FILLED
@@ -160,8 +421,8 @@ public class TetrisBoard implements Serializable {
      * of bounds of the board, ADD_OUT_BOUNDS is returned.
      * Or the placement may collide with existing blocks in the grid
      * in which case ADD_BAD is returned.
-     * In both error cases, the board may be left in an invalid
-     * state. The client can use undo(), to recover the valid, pre-place state.
+     * In both error cases nothing is written (not even to the undo journal), but the board
+     * is no longer committed. The client can use undo(), to recover the committed, pre-place state.
      *
      * @param piece piece to place
      * @param x     placement position, x
@@ -170,29 +431,67 @@ public class TetrisBoard implements Serializable {
      */
     public int placePiece(TetrisPiece piece, int x, int y) {
         committed = false;
-        backupGrid();
-        TetrisPoint[] points = piece.getBody();
-        for (TetrisPoint point : points) {
-            int grid_x = point.x + x;
-            int grid_y = point.y + y;
-
-            if (!(0 <= grid_x) || !(grid_x <= width) || !(0 <= grid_y) || !(grid_y <= height)) {
-                return ADD_OUT_BOUNDS;
-            } else if (getGrid(grid_x, grid_y)) {
-                return ADD_BAD;
-            }
+        int result = checkPlacement(piece, x, y);
+        pending = result == ADD_OK;
+        if (!pending) return result;
+        int e = pushEntry();
+        journalPiece[e] = piece;
+        journalX[e] = x;
+        journalY[e] = y;
+        System.arraycopy(colCounts, x, backupColCounts, e * width, piece.getWidth());
+        backupMaxHeight[e] = maxHeight;
+        return writePiece(piece, x, y);
+    }
+
+    /**
+     * Writes the piece blocks into the grid and updates the tallies of the cells it covers.
+     * The placement must already be known to be legal.
+     *
+     * @return ADD_ROW_FILLED if a row was filled, else ADD_OK
+     */
+    private int writePiece(TetrisPiece piece, int x, int y) {
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int ph = table.getHeight(p);
+        int w0 = x >>> 6;
+        int shift = x & 63;
+        boolean filled = false;
+        for (int r = 0; r < ph; r++) {
+            long mask = table.getRowMask(p, r);
+            long lo = mask << shift;
+            long hi = highPart(mask, shift);
+            int slot = rowIndex[y + r];
+            int i = slot * words + w0;
+            tetrisGrid[i] |= lo;
+            if (hi != 0) tetrisGrid[i + 1] |= hi;
+
+            //only the tallies (and hash) of the cells we touched can change
+            rowCounts[slot] += Long.bitCount(mask);
+            hash ^= wordHash(lo, w0, y + r) ^ wordHash(hi, w0 + 1, y + r);
+            raiseColumns(lo, w0 << 6, y + r + 1);
+            raiseColumns(hi, (w0 + 1) << 6, y + r + 1);
+            if (rowCounts[slot] == width) filled = true;
         }
-        for (TetrisPoint point : points) {
-            int grid_x = point.x + x;
-            int grid_y = point.y + y;
-            tetrisGrid[grid_x][grid_y] = true;
+        if (maxHeight < y + ph) maxHeight = y + ph;
+        return filled ? ADD_ROW_FILLED : ADD_OK;
+    }
+
+    /**
+     * Returns the bits of a piece row mask that spill into the next word when shifted left by shift.
+     */
+    private static long highPart(long mask, int shift) {
+        return (shift == 0) ? 0L : mask >>> (Long.SIZE - shift);
+    }
+
+    /**
+     * Raises the height of every column set in cells (a row word starting at column offset) to at least h.
+     */
+    private void raiseColumns(long cells, int offset, int h) {
+        while (cells != 0) {
+            int col = offset + Long.numberOfTrailingZeros(cells);
+            if (colCounts[col] < h) colCounts[col] = h;
+            cells &= cells - 1;
         }
-        for (TetrisPoint point : points) {
-            makeHeightAndWidthArrays();
-            if (getRowWidth(point.y) == width) {
-                return ADD_ROW_FILLED;
-            }
-        } return ADD_OK;
     }
 
 
@@ -203,55 +502,305 @@ public class TetrisBoard implements Serializable {
      * @return number of rows cleared (useful for scoring)
      */
     public int clearRows() {
+        //the clear belongs to the latest placement, unless that one already cleared rows
+        //or (on an uncommitted board) it was made before the last commit
+        boolean sameEntry = historySize > 0 && journalCleared[head] == 0 && (committed || pending);
+        int e = sameEntry ? head : (head + 1) % ringSize;
+        int top = maxHeight;
+        int cleared = removeFullRows(e);
+        if (cleared > 0) {
+            if (!sameEntry) pushEntry();
+            if (!committed) pending = true;
+            else trimHistory(); //a clear on a committed board is committed straight away
+            journalCleared[e] = cleared;
+            journalClearTop[e] = top;
+            redoSize = 0;
+        }
+        return cleared;
+    }
+
+    /**
+     * Removes the full rows in one pass, sliding the rows above them down,
+     * and records the y of each removed row in journal entry e.
+     * Only row slots move; the removed slots are emptied and reused as the new top rows.
+     *
+     * @return number of rows removed
+     */
+    private int removeFullRows(int e) {
         int cleared = 0;
-        for (int y = 0; y < height; y++) {
-            makeHeightAndWidthArrays();
-            if (getRowWidth(y) == width){
+        int top = maxHeight; //rows at or above the tallest column are empty
+        for (int y = 0; y < top; y++) {
+            int slot = rowIndex[y];
+            boolean full = rowCounts[slot] == width;
+            if (cleared > 0 || full) {
+                hash ^= rowHash(slot, y); //every row from the first cleared one up moves
+            }
+            if (full){
+                journalClearedRows[e * height + cleared] = y;
+                spareRows[cleared] = slot;
                 cleared += 1;
-
-                for (int x = 0; x < width; x++) {
-                    tetrisGrid[x][y] = false;
-                    if (y+1 < height){
-                        tetrisGrid[x][y] = tetrisGrid[x][y+1];
-                    }
-                }
+            } else if (cleared > 0) { //slide the row down past the cleared rows below it
+                rowIndex[y - cleared] = slot;
             }
-        } return cleared;
+        }
+        for (int i = 0; i < cleared; i++) {
+            int slot = spareRows[i];
+            Arrays.fill(tetrisGrid, slot * words, (slot + 1) * words, 0L);
+            rowCounts[slot] = 0;
+            rowIndex[top - cleared + i] = slot;
+        }
+        if (cleared > 0) {
+            rehashRows(journalClearedRows[e * height], top - cleared);
+            maxHeight = top - cleared;
+            makeColumnHeights();
+        }
+        return cleared;
     }
 
     /**
      * Reverts the board to its state before up to one call to placePiece() and one to clearRows();
      * If the conditions for undo() are not met, such as calling undo() twice in a row, then the second undo() does nothing.
+     * The reverted changes are dropped from the journal rather than made redoable, since they were
+     * never committed (e.g. a piece tried out while it falls).
      * See the overview docs.
      */
     public void undo() {
         if (committed == true) return;  //a committed board cannot be undone!
+        if (pending) {
+            revertEntry(head);
+            head = (head + ringSize - 1) % ringSize;
+            historySize--;
+            pending = false;
+        }
+        commit();
+    }
 
-        if (backupGrid == null) throw new RuntimeException("No source for backup!");  //a board with no backup source cannot be undone!
+    /**
+     * Reverts the last n placements (each with the clearRows() that followed it), whether or not
+     * they were committed. At most the history depth given at construction can be undone.
+     * Undone placements can be replayed with redo(n) until the next placePiece().
+     * Leaves the board in the committed state.
+     *
+     * @param n number of placements to revert
+     * @return number of placements actually reverted
+     */
+    public int undo(int n) {
+        int undone = 0;
+        while (undone < n && historySize > 0) {
+            revertEntry(head);
+            head = (head + ringSize - 1) % ringSize;
+            historySize--;
+            redoSize++;
+            undone++;
+        }
+        commit(); //no going backwards now!
+        return undone;
+    }
 
-        //make a copy!!
-        for (int i = 0; i < backupGrid.length; i++) {
-            System.arraycopy(backupGrid[i], 0, tetrisGrid[i], 0, backupGrid[i].length);
+    /**
+     * Replays up to n placements reverted by undo(n). Leaves the board in the committed state.
+     *
+     * @param n number of placements to replay
+     * @return number of placements actually replayed
+     */
+    public int redo(int n) {
+        int redone = 0;
+        while (redone < n && redoSize > 0) {
+            head = (head + 1) % ringSize;
+            historySize++;
+            redoSize--;
+            if (journalPiece[head] != null) {
+                writePiece(journalPiece[head], journalX[head], journalY[head]);
+            }
+            if (journalCleared[head] > 0) {
+                removeFullRows(head);
+            }
+            redone++;
         }
+        commit();
+        return redone;
+    }
+
+    /**
+     * @return number of placements that undo(n) can currently revert
+     */
+    public int getUndoCount() {
+        return historySize;
+    }
+
+    /**
+     * @return number of placements that redo(n) can currently replay
+     */
+    public int getRedoCount() {
+        return redoSize;
+    }
 
-        //copy row and column tallies as well.
-        System.arraycopy(backupRowCounts, 0, rowCounts, 0, backupRowCounts.length);
-        System.arraycopy(backupColCounts, 0, colCounts, 0, backupColCounts.length);
+    /**
+     * Claims the next journal entry. The entries before it are kept up to the history depth,
+     * evicting the oldest if need be; the new one may go past it until the board is committed.
+     * Anything that could have been redone is forgotten.
+     *
+     * @return index of the new entry
+     */
+    private int pushEntry() {
+        head = (head + 1) % ringSize;
+        historySize = Math.min(historySize, historyDepth) + 1;
+        redoSize = 0;
+        journalPiece[head] = null;
+        journalCleared[head] = 0;
+        return head;
+    }
 
-        committed = true; //no going backwards now!
+    /**
+     * Plays journal entry e backwards: put back the cleared rows, then lift the piece out.
+     */
+    private void revertEntry(int e) {
+        if (journalCleared[e] > 0) {
+            restoreClearedRows(e);
+        }
+        TetrisPiece piece = journalPiece[e];
+        if (piece != null) {
+            int x = journalX[e];
+            int y = journalY[e];
+            PieceTable table = piece.getTable();
+            int p = piece.getRotationIndex();
+            int w0 = x >>> 6;
+            int shift = x & 63;
+            for (int r = 0; r < table.getHeight(p); r++) {
+                long mask = table.getRowMask(p, r);
+                long lo = mask << shift;
+                long hi = highPart(mask, shift);
+                int slot = rowIndex[y + r];
+                int i = slot * words + w0;
+                tetrisGrid[i] &= ~lo;
+                if (hi != 0) tetrisGrid[i + 1] &= ~hi;
+                rowCounts[slot] -= Long.bitCount(mask);
+                hash ^= wordHash(lo, w0, y + r) ^ wordHash(hi, w0 + 1, y + r);
+            }
+            System.arraycopy(backupColCounts, e * width, colCounts, x, piece.getWidth());
+            maxHeight = backupMaxHeight[e];
+        }
     }
 
     /**
-     * Copy the backup grid into the grid that defines the board (to support undo)
+     * Re-inserts the rows recorded in journal entry e (they were full when removed), sliding the rows
+     * above them back up in a single top-down pass, then settles the column heights again.
+     * The empty slots just above the stack are refilled to stand in for the removed rows.
      */
-    private void backupGrid() {
-        //make a copy!!
-        for (int i = 0; i < tetrisGrid.length; i++) {
-            System.arraycopy(tetrisGrid[i], 0, backupGrid[i], 0, tetrisGrid[i].length);
+    private void restoreClearedRows(int e) {
+        int cleared = journalCleared[e];
+        int top = journalClearTop[e];
+        int first = journalClearedRows[e * height];
+        rehashRows(first, top - cleared); //take the rows that will move out of the hash
+        System.arraycopy(rowIndex, top - cleared, spareRows, 0, cleared);
+        int c = cleared - 1;
+        int src = top - cleared - 1;
+        for (int dst = top - 1; c >= 0; dst--) {
+            if (dst == journalClearedRows[e * height + c]) {
+                int slot = spareRows[c];
+                Arrays.fill(tetrisGrid, slot * words, (slot + 1) * words - 1, -1L);
+                tetrisGrid[(slot + 1) * words - 1] = lastWordMask;
+                rowCounts[slot] = width;
+                rowIndex[dst] = slot;
+                c--;
+            } else {
+                rowIndex[dst] = rowIndex[src];
+                src--;
+            }
         }
-        //copy row and column tallies as well.
-        System.arraycopy(rowCounts, 0, backupRowCounts, 0, rowCounts.length);
-        System.arraycopy(colCounts, 0, backupColCounts, 0, colCounts.length);
+        rehashRows(first, top);
+        maxHeight = top;
+        makeColumnHeights();
+    }
+
+    /**
+     * Toggles rows from..to-1 in (or out of) the hash.
+     */
+    private void rehashRows(int from, int to) {
+        for (int y = from; y < to; y++) {
+            hash ^= rowHash(rowIndex[y], y);
+        }
+    }
+
+    /**
+     * Returns the Zobrist key of the block at x,y. Keys are derived from the position
+     * (a SplitMix64 finaliser) rather than stored, so boards of any size share them
+     * without a table.
+     *
+     * @param x grid position, x
+     * @param y grid position, y
+     * @return 64-bit key of the block
+     */
+    static long cellKey(int x, int y) {
+        return SplitMix64.mix((((long) y << 32) | x) * SplitMix64.GAMMA);
+    }
+
+    /**
+     * Returns the XOR of the Zobrist keys of the blocks set in word w of row y.
+     */
+    private static long wordHash(long word, int w, int y) {
+        long h = 0L;
+        while (word != 0) {
+            h ^= cellKey((w << 6) + Long.numberOfTrailingZeros(word), y);
+            word &= word - 1;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the XOR of the Zobrist keys of the blocks in the given row slot, taken as row y.
+     */
+    private long rowHash(int slot, int y) {
+        long h = 0L;
+        for (int w = 0; w < words; w++) {
+            h ^= wordHash(tetrisGrid[slot * words + w], w, y);
+        }
+        return h;
+    }
+
+    /**
+     * Returns the 64-bit Zobrist hash of the blocks on the board. It is kept up to date by
+     * placePiece(), clearRows() and undo(), so reading it is free. Boards holding the same
+     * blocks have the same hash.
+     *
+     * @return hash of the board
+     */
+    public long getZobristHash() {
+        return hash;
+    }
+
+    /**
+     * Returns true if the other object is a board of the same size with the same blocks filled.
+     * The hashes are compared first, so unequal boards are almost always rejected without
+     * looking at the rows.
+     *
+     * @param obj the object to compare to this
+     *
+     * @return true if the boards hold the same blocks
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof TetrisBoard)) return false;
+        TetrisBoard other = (TetrisBoard) obj;
+        if (width != other.width || height != other.height
+                || hash != other.hash || maxHeight != other.maxHeight) return false;
+        for (int y = 0; y < maxHeight; y++) {
+            for (int w = 0; w < words; w++) {
+                if (getRowWord(y, w) != other.getRowWord(y, w)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash code derived from the Zobrist hash, consistent with equals().
+     *
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
     }
 
     /**
@@ -259,24 +808,48 @@ public class TetrisBoard implements Serializable {
      */
     public void commit() {
         committed = true;
+        trimHistory();
     }
 
     /**
-     * Fills heightsOfCols[] and widthOfRows[].  Useful helper to support clearing rows and placing pieces.
+     * Evicts the oldest committed entry if the spare one is in use, now that nothing is pending.
      */
-    private void makeHeightAndWidthArrays() {
-
-        Arrays.fill(colCounts, 0);
-        Arrays.fill(rowCounts, 0);
+    private void trimHistory() {
+        if (historySize > historyDepth) historySize = historyDepth;
+    }
 
-        for (int x = 0; x < tetrisGrid.length; x++) {
-            for (int y = 0; y < tetrisGrid[x].length; y++) {
-                if (tetrisGrid[x][y]) { //means is not an empty cell
-                    colCounts[x] = y + 1; //these tallies can be useful when clearing rows or placing pieces
-                    rowCounts[y]++;
+    /**
+     * Recomputes colCounts[] and maxHeight after rows have been removed or restored.  Walks down from the old
+     * top of the stack, settling each column at the first filled row seen, and stops as soon as
+     * every column is settled.  maxHeight must be an upper bound on the new height when called.
+     */
+    private void makeColumnHeights() {
+        Arrays.fill(unsettled, -1L);
+        unsettled[words - 1] = lastWordMask;
+        int remaining = width;
+        int top = maxHeight;
+        maxHeight = 0;
+        for (int y = top - 1; y >= 0 && remaining > 0; y--) {
+            int base = rowIndex[y] * words;
+            for (int w = 0; w < words; w++) {
+                long found = tetrisGrid[base + w] & unsettled[w];
+                if (found == 0) continue;
+                if (maxHeight == 0) maxHeight = y + 1;
+                unsettled[w] &= ~found;
+                remaining -= Long.bitCount(found);
+                while (found != 0) {
+                    colCounts[(w << 6) + Long.numberOfTrailingZeros(found)] = y + 1;
+                    found &= found - 1;
                 }
             }
         }
+        for (int w = 0; w < words && remaining > 0; w++) { //columns with no blocks left
+            long empty = unsettled[w];
+            while (empty != 0) {
+                colCounts[(w << 6) + Long.numberOfTrailingZeros(empty)] = 0;
+                empty &= empty - 1;
+            }
+        }
     }
 
     /**
@@ -1,6 +1,7 @@
 package model;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.Random;
 
 /** Represents a Tetris Model for Tetris.  
@@ -8,9 +9,12 @@ import java.util.Random;
  */
 public class TetrisModel implements Serializable {
 
-    public static final int WIDTH = 10; //size of the board in blocks
-    public static final int HEIGHT = 20; //height of the board in blocks
-    public static final int BUFFERZONE = 4; //space at the top
+    public static final int WIDTH = 10; //default size of the board in blocks
+    public static final int HEIGHT = 20; //default height of the board in blocks
+    public static final int BUFFERZONE = 4; //default space at the top
+    public static final int PREVIEW_SIZE = 3; //default number of upcoming pieces shown
+
+    protected int width, height, bufferZone; //dimensions of this model's board
 
     protected TetrisBoard board;  // Board data structure
     protected TetrisPiece[] pieces; // Pieces to be places on the board
@@ -24,10 +28,21 @@ public class TetrisModel implements Serializable {
 
     // State of the game
     protected boolean gameOn;	// true if we are playing
-    protected Random random;	 // the random generator for new pieces
+    protected PieceGenerator generator; // chooses the pieces to play
+    protected ArrayDeque<TetrisPiece> preview; // upcoming pieces, next one first
+    protected int previewSize; // number of upcoming pieces to keep in the preview
+    private boolean seeded; // replay the same pieces every game?
+    private long seed; // seed for the generator if seeded
 
     private boolean autoPilotMode; //are we in autopilot mode?
     protected TetrisPilot pilot;
+    protected MovePlan plan; // moves the pilot planned for the current piece
+    private int planStep; // next move of the plan to play
+    private int planCount; // piece count when the plan was made
+    private long planHash; // hash of the committed board when the plan was made
+    private boolean asyncPilot; // run the pilot in the background (in autopilot mode) rather than in the tick?
+    private transient PilotRunner runner; // the background pilot while it is running, or null
+    private long generation; // tag of the latest plan asked of the runner
 
     public enum MoveType {
         ROTATE,
@@ -41,8 +56,26 @@ public class TetrisModel implements Serializable {
      * Constructor for a tetris model
      */
     public TetrisModel() {
-        board = new TetrisBoard(WIDTH, HEIGHT + BUFFERZONE);
+        this(WIDTH, HEIGHT, BUFFERZONE);
+    }
+
+    /**
+     * Constructor for a tetris model with a board of the given size, e.g. for
+     * stress-testing pilots on very large boards.
+     *
+     * @param width      width of the board in blocks
+     * @param height     height of the playing area in blocks
+     * @param bufferZone space above the playing area where new pieces appear
+     */
+    public TetrisModel(int width, int height, int bufferZone) {
+        this.width = width;
+        this.height = height;
+        this.bufferZone = bufferZone;
+        board = new TetrisBoard(width, height + bufferZone);
         pieces = TetrisPiece.getPieces(); //initialize board and pieces
+        generator = new UniformPieceGenerator(pieces, 0);
+        preview = new ArrayDeque<>();
+        previewSize = PREVIEW_SIZE;
         autoPilotMode = false;
         gameOn = false;
         pilot = new AutoPilot();
@@ -53,7 +86,10 @@ public class TetrisModel implements Serializable {
      * Start new game
      */
     public void startGame() { //start game
-        random = new Random();
+        dropPlan();
+        generator.setSeed(seeded ? seed : new Random().nextLong());
+        preview.clear();
+        for (int i = 0; i < previewSize; i++) preview.add(generator.next());
         addNewPiece();
         gameOn = true;
         score = 0;
@@ -139,12 +175,59 @@ public class TetrisModel implements Serializable {
      * Pick next piece to put in play on board 
      */
     private TetrisPiece pickNextPiece() {
-        int pieceNum;
-        pieceNum = (int) (pieces.length * random.nextDouble());
-        TetrisPiece piece	 = pieces[pieceNum];
+        if (preview.isEmpty()) return generator.next();
+        TetrisPiece piece = preview.poll();
+        preview.add(generator.next());
         return(piece);
     }
 
+    /**
+     * Get the upcoming pieces
+     *
+     * @return the pieces that will be played after the current one, next one first
+     */
+    public TetrisPiece[] getPreview() {
+        return preview.toArray(new TetrisPiece[0]);
+    }
+
+    /**
+     * Get the piece generator
+     *
+     * @return the generator choosing the pieces (use copy() to look further ahead than the preview)
+     */
+    public PieceGenerator getPieceGenerator() {
+        return generator;
+    }
+
+    /**
+     * Set the piece generator, e.g. a BagPieceGenerator. Takes effect at the next new game.
+     *
+     * @param generator generator choosing the pieces
+     */
+    public void setPieceGenerator(PieceGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Play the same pieces every game, for reproducible benchmarks. Takes effect at the next new game.
+     *
+     * @param seed seed for the piece generator
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+
+    /**
+     * Set the number of upcoming pieces in the preview. Takes effect at the next new game.
+     *
+     * @param previewSize number of upcoming pieces to show
+     */
+    public void setPreviewSize(int previewSize) {
+        if (previewSize < 0) throw new IllegalArgumentException("Bad preview size: " + previewSize);
+        this.previewSize = previewSize;
+    }
+
     /**
      * Attempt to set the piece at a given board position
      * 
@@ -188,7 +271,7 @@ public class TetrisModel implements Serializable {
      * @return width 
      */
     public double getWidth() {
-        return WIDTH;
+        return width;
     }
 
     /**
@@ -197,7 +280,16 @@ public class TetrisModel implements Serializable {
      * @return height (with buffer at top accounted for) 
      */
     public double getHeight() {
-        return HEIGHT + BUFFERZONE;
+        return height + bufferZone;
+    }
+
+    /**
+     * Get buffer zone
+     *
+     * @return height of the space at the top of the board
+     */
+    public int getBufferZone() {
+        return bufferZone;
     }
 
     /**
@@ -218,6 +310,48 @@ public class TetrisModel implements Serializable {
         return count;
     }
 
+    /**
+     * Set the pilot that plays in autopilot mode.
+     *
+     * @param pilot the pilot to use
+     */
+    public void setPilot(TetrisPilot pilot) {
+        stopRunner(); //it is started again, with the new pilot, when next needed
+        this.pilot = pilot;
+        dropPlan();
+    }
+
+    /**
+     * Run the pilot on a background thread instead of inside modelTick(). While the pilot is
+     * searching, ticks carry on without waiting and the piece simply keeps falling.
+     * The thread is started at the first automated move and stopped in human pilot mode.
+     *
+     * @param async true to run the pilot in the background
+     */
+    public void setAsyncPilot(boolean async) {
+        stopRunner();
+        asyncPilot = async;
+        dropPlan();
+    }
+
+    /**
+     * Stops the background pilot if it is running, and waits for any search in progress to finish
+     * so the pilot is free to be used in the tick (or by a new runner). Plans still on the way are lost.
+     */
+    private void stopRunner() {
+        if (runner == null) return;
+        runner.shutdown();
+        runner = null;
+    }
+
+    /**
+     * Forgets the current plan, so that the pilot is asked for a new one at the next move.
+     */
+    private void dropPlan() {
+        plan = null;
+        planCount = -1;
+    }
+
     /**
      * Set autopilot mode to true.
      */
@@ -230,6 +364,8 @@ public class TetrisModel implements Serializable {
      */
     public void setHumanPilotMode() {
         autoPilotMode = false;
+        stopRunner(); //no plans are wanted until autopilot mode is back
+        dropPlan();
     }
 
     /**
@@ -251,10 +387,44 @@ public class TetrisModel implements Serializable {
     /**
      * Get the best move that is automatically generated by a computer
      * Then execute it.
+     * The pilot plans all the moves for a piece at once; the plan is replayed a move per tick,
+     * and only replaced when a new piece arrives, the board changes or the piece strays from it.
      */
     private void computerMove() {
-        MoveType verb = pilot.bestMove(board,currentPiece,currentX,currentY); //which move is best?
-        executeMove(verb);
+        //pilots search from the committed board, so take the current piece off while they look
+        board.undo();
+        if (asyncPilot && runner == null) runner = new PilotRunner(pilot);
+        if (runner != null) {
+            requestPlan();
+        } else if (plan == null || planCount != count || planHash != board.getZobristHash()
+                || !plan.isOnTrack(planStep, currentPiece, currentX)) {
+            plan = pilot.planMoves(board,currentPiece,getPreview(),currentX,currentY); //which moves are best?
+            planStep = 0;
+            planCount = count;
+            planHash = board.getZobristHash();
+        }
+        board.placePiece(currentPiece, currentX, currentY);
+        if (plan != null) executeMove(plan.getMove(planStep++));
+    }
+
+    /**
+     * Keeps the background pilot's plan up to date: asks for a new plan if the board or piece
+     * has changed since the last request, and picks up the plan if it has arrived.
+     * Leaves plan null while there is no usable plan yet.
+     */
+    private void requestPlan() {
+        boolean stale = planCount != count || planHash != board.getZobristHash();
+        if (stale || (plan != null && !plan.isOnTrack(planStep, currentPiece, currentX))) {
+            generation++;
+            plan = null;
+            planCount = count;
+            planHash = board.getZobristHash();
+            runner.submit(generation, board, currentPiece, getPreview(), currentX, currentY);
+        }
+        if (plan == null) {
+            plan = runner.poll(generation);
+            planStep = 0;
+        }
     }
 
     /**
@@ -298,7 +468,7 @@ public class TetrisModel implements Serializable {
             }
 
             // if the board is too tall, we've lost!
-            if (board.getMaxHeight() > board.getHeight() - BUFFERZONE) {
+            if (board.getMaxHeight() > board.getHeight() - bufferZone) {
                 stopGame();
             }
 
@@ -339,6 +509,15 @@ public class TetrisModel implements Serializable {
     public boolean getAutoPilotMode() {
         return this.autoPilotMode;
     }
+
+    /**
+     * Getter for game state, e.g. for running games without a view
+     *
+     * @return true while a game is being played (false once it is over or paused)
+     */
+    public boolean isGameOn() {
+        return gameOn;
+    }
 }
 
 
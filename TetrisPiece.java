@@ -19,9 +19,15 @@ public class TetrisPiece implements Serializable {
     */
     private TetrisPoint[] body; // y and x values that make up the body of the piece.
     private int[] lowestYVals; //The lowestYVals array contains the lowest y value for each x in the body.
+    private int[] highestYVals; //The highest y value + 1 for each x in the body (the top profile).
+    private long[] rowMasks; //one bitmask per row of the body (bit x set if the body has a block at x)
     private int width;
     private int height;
     private TetrisPiece next; // We'll use this to link each piece to its "next" rotation.
+    private int rotationIndex; // position of this piece in its rotation ring (0 for the root)
+    private long shapeKey; // hash of the body, equal for pieces with the same points
+    private int id = -1; // id given by PieceRegistry to canonical pieces, else -1
+    private transient PieceTable table; // flat tables for this piece's rotation ring, built on first use
     static private TetrisPiece[] pieces;	// array of rotations for this piece
 
 
@@ -42,36 +48,32 @@ public class TetrisPiece implements Serializable {
      * This will become useful when computing where the piece will land on the board!!
      */
     public TetrisPiece(TetrisPoint[] points) {
-        //your code here!
         body = points;
 
         width = 0;
         height = 0;
         for (TetrisPoint point : points){
-            if (point.x > width){
-                width = point.x;
-            } else if (point.y > height){
-                height = point.y;
-            }
+            width = Math.max(width, point.x + 1);
+            height = Math.max(height, point.y + 1);
         }
-        width += 1;
-        height += 1;
 
-        HashMap<Integer, Integer> lowest = new HashMap<>();
-            for (TetrisPoint point : body) {
-                if (!lowest.containsKey(point.x)) {
-                    lowest.put(point.x, point.y);
-                } else if (point.y < lowest.get(point.x)){
-                    lowest.remove(point.x);
-                    lowest.put(point.x, point.y);
-                }
-            }
-            lowestYVals = new int[lowest.size()];
-            ArrayList<Integer> key = new ArrayList<>(lowest.keySet());
-            Collections.sort(key);
-            for (int i = 0; i < lowest.size(); i++){
-                lowestYVals[i] = lowest.get(key.get(i));
-            }
+        //skirt and top profile, one entry per column of the piece
+        lowestYVals = new int[width];
+        highestYVals = new int[width];
+        Arrays.fill(lowestYVals, height);
+        rowMasks = new long[height];
+        for (TetrisPoint point : body) {
+            lowestYVals[point.x] = Math.min(lowestYVals[point.x], point.y);
+            highestYVals[point.x] = Math.max(highestYVals[point.x], point.y + 1);
+            rowMasks[point.y] |= 1L << point.x;
+        }
+
+        //the row masks are exactly the set of points, so they make an order-independent key
+        shapeKey = width * 31L + height;
+        for (long row : rowMasks) {
+            shapeKey = (shapeKey ^ row) * 0x9E3779B97F4A7C15L;
+            shapeKey ^= shapeKey >>> 29;
+        }
     }
 
     /**
@@ -122,6 +124,68 @@ public class TetrisPiece implements Serializable {
         return lowestYVals;
     }
 
+    /**
+     * Returns a pointer to the piece's top profile. For each x value
+     * across the piece, this gives the highest y value in the body, plus one.
+     * A column of the board ends up this much above the piece's y after a placement.
+     * The caller should not modify the values that are returned
+     *
+     * @return array of integers that define the top of the piece for every X value of the piece.
+     */
+    public int[] getHighestYVals() {
+        return highestYVals;
+    }
+
+    /**
+     * Returns the position of this piece in its rotation ring: 0 for the root passed
+     * to makeFastRotations(), 1 for the next rotation, and so on.
+     *
+     * @return rotation index
+     */
+    public int getRotationIndex() {
+        return rotationIndex;
+    }
+
+    /**
+     * Returns the flat tables (see PieceTable) for this piece's rotation ring, in which this piece
+     * is at table index getRotationIndex(). The tables are built on first use and shared by every
+     * rotation of the ring; the board and the search code read pieces through them.
+     *
+     * @return the tables of this piece's ring
+     */
+    public PieceTable getTable() {
+        PieceTable t = table;
+        return (t != null) ? t : buildTable(); //kept small, so the hot paths inline it
+    }
+
+    /**
+     * Builds the tables of this piece's ring and hands them to every rotation of it.
+     * Two threads may both build one; either is correct, as the tables are immutable.
+     */
+    private PieceTable buildTable() {
+        TetrisPiece root = this;
+        while (root.rotationIndex != 0) root = root.next;
+        PieceTable t = new PieceTable(new TetrisPiece[] {root});
+        TetrisPiece piece = root;
+        do {
+            piece.table = t;
+            piece = piece.next;
+        } while (piece != null && piece != root);
+        return t;
+    }
+
+    /**
+     * Returns the body of the piece as one bitmask per row: bit x of rowMasks[y]
+     * is set if the body contains the point (x,y). Used by the board to test
+     * and place a whole row of the piece at once.
+     * The caller should not modify the values that are returned
+     *
+     * @return array of row bitmasks, indexed by y
+     */
+    public long[] getRowMasks() {
+        return rowMasks;
+    }
+
     /**
      * Returns true if two pieces are the same --
      * their bodies contain the same points.
@@ -129,19 +193,49 @@ public class TetrisPiece implements Serializable {
      * same body arrays, since the points may not be
      * in the same order in the bodies. Used internally to detect
      * if two rotations are effectively the same.
+     * Canonical pieces from PieceRegistry compare by id; other pieces compare
+     * their shape keys and then their row masks, so no points are searched.
      *
      * @param obj the object to compare to this
      *
      * @return true if objects are the same
      */
+    @Override
     public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof TetrisPiece)) return false;
         TetrisPiece piece = (TetrisPiece) obj;
-        List points = List.of(piece.body);
-        for (TetrisPoint point : body){
-            if (!points.contains(point)){
-                return false;
-            }
-        } return true;
+        if (id >= 0 && piece.id >= 0) return id == piece.id;
+        return shapeKey == piece.shapeKey && body.length == piece.body.length
+                && Arrays.equals(rowMasks, piece.rowMasks);
+    }
+
+    /**
+     * Hash code of the piece's shape, consistent with equals().
+     *
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return (int) (shapeKey ^ (shapeKey >>> 32));
+    }
+
+    /**
+     * Returns the small integer id of this piece if it is the canonical instance
+     * of its shape (see PieceRegistry.intern()), or -1 otherwise.
+     * Every rotation of the standard pieces has an id.
+     *
+     * @return id of the piece, or -1
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id of a canonical piece; only called by PieceRegistry.
+     */
+    void setId(int id) {
+        this.id = id;
     }
 
     /**
@@ -162,15 +256,23 @@ public class TetrisPiece implements Serializable {
         if (TetrisPiece.pieces==null) {
             // use makeFastRotations() to compute all the rotations for each piece
             try {
+                //same bodies as the *_STR constants, without parsing them
                 TetrisPiece.pieces = new TetrisPiece[]{
-                        makeFastRotations(new TetrisPiece(STICK_STR)),
-                        makeFastRotations(new TetrisPiece(L1_STR)),
-                        makeFastRotations(new TetrisPiece(L2_STR)),
-                        makeFastRotations(new TetrisPiece(S1_STR)),
-                        makeFastRotations(new TetrisPiece(S2_STR)),
-                        makeFastRotations(new TetrisPiece(SQUARE_STR)),
-                        makeFastRotations(new TetrisPiece(PYRAMID_STR)),
+                        makeFastRotations(new TetrisPiece(points(0,0, 0,1, 0,2, 0,3))), //STICK
+                        makeFastRotations(new TetrisPiece(points(0,0, 0,1, 0,2, 1,0))), //L1
+                        makeFastRotations(new TetrisPiece(points(0,0, 1,0, 1,1, 1,2))), //L2
+                        makeFastRotations(new TetrisPiece(points(0,0, 1,0, 1,1, 2,1))), //S1
+                        makeFastRotations(new TetrisPiece(points(0,1, 1,1, 1,0, 2,0))), //S2
+                        makeFastRotations(new TetrisPiece(points(0,0, 0,1, 1,0, 1,1))), //SQUARE
+                        makeFastRotations(new TetrisPiece(points(0,0, 1,0, 1,1, 2,0))), //PYRAMID
                 };
+                for (TetrisPiece root : TetrisPiece.pieces) { //give every rotation a canonical id
+                    TetrisPiece piece = root;
+                    do {
+                        PieceRegistry.intern(piece);
+                        piece = piece.next;
+                    } while (piece != root);
+                }
             } catch (UnsupportedOperationException e) {
                 System.out.println("You must implement makeFastRotations!");
                 System.exit(1);
@@ -210,8 +312,11 @@ public class TetrisPiece implements Serializable {
      */
     public static TetrisPiece makeFastRotations(TetrisPiece root) {
         TetrisPiece first = root;
+        root.rotationIndex = 0;
+        root.table = null; //any tables built before the ring existed are out of date
         first.next = first.computeNextRotation();
         while (!first.next.equals(root)){
+            first.next.rotationIndex = first.rotationIndex + 1;
             first = first.next;
             first.next = first.computeNextRotation();
         }
@@ -226,35 +331,14 @@ public class TetrisPiece implements Serializable {
      * @return the next rotation of the given piece
      */
     public TetrisPiece computeNextRotation() {
-        int new_x;
-        int new_y;
-        int min = width;
-        ArrayList<Integer> store = new ArrayList<>();
-        for (TetrisPoint point : body){
-            new_x = -point.y;
-            new_y = point.x;
-
-            store.add(new_x);
-            store.add(new_y);
-            if (new_x < min){
-                min = new_x;
-            }
-        }
-        String points = "";
-        int s;
-        for (int i = 0; i < store.size(); i++){
-            if (i%2 == 0){
-                s = store.get(i) - min;
-                points += s;
-                points += " ";
-            } else {
-                points += store.get(i);
-                points += " ";
-            }
+        //(x, y) -> (-y, x), shifted right so the piece starts at x = 0
+        TetrisPoint[] points = new TetrisPoint[body.length];
+        for (int i = 0; i < body.length; i++) {
+            points[i] = new TetrisPoint(height - 1 - body[i].y, body[i].x);
         }
-        TetrisPiece next_piece = new TetrisPiece(points);
-        return next_piece;
+        return new TetrisPiece(points);
     }
+
     /**
      * Print the points within the piece
      *
@@ -268,6 +352,21 @@ public class TetrisPiece implements Serializable {
         return str;
     }
 
+    /**
+     * Builds a body from x,y pairs given inline, e.g. points(0,0, 0,1, 0,2, 1,0).
+     *
+     * @param xy alternating x and y values
+     *
+     * @return an array of points
+     */
+    private static TetrisPoint[] points(int... xy) {
+        TetrisPoint[] array = new TetrisPoint[xy.length / 2];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = new TetrisPoint(xy[2 * i], xy[2 * i + 1]);
+        }
+        return array;
+    }
+
     /**
      * Given a string of x,y pairs (e.g. "0 0 0 1 0 2 1 0"), parses
      * the points into a TPoint[] array.
@@ -13,4 +13,36 @@ public interface TetrisPilot {
      * @return The best move, based on search for good moves
      */
     public TetrisModel.MoveType bestMove(TetrisBoard board, TetrisPiece piece, int limitHeight, int currentY);
-}
\ No newline at end of file
+
+    /**
+     * Given a piece and a board, return the whole sequence of moves the pilot wants to play
+     * with that piece. The model replays the plan a move per tick and only asks again when a
+     * new piece arrives or the piece strays from the plan, so this is the place for expensive search.
+     * The board should be in the committed state when this is called.
+     * By default the plan is the single move chosen by bestMove().
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param currentX Where the current piece is currently located (X position)
+     * @param currentY Where the current piece is currently located (Y position)
+     * @return The planned moves
+     */
+    public default MovePlan planMoves(TetrisBoard board, TetrisPiece piece, int currentX, int currentY) {
+        return MovePlan.of(bestMove(board, piece, currentX, currentY), piece, currentX);
+    }
+
+    /**
+     * Like planMoves(board, piece, currentX, currentY), but also given the pieces that will follow
+     * this one, for pilots that look ahead. By default the preview is ignored.
+     *
+     * @param board    The current board configuration
+     * @param piece    The current piece
+     * @param preview  The pieces that come after the current one, next one first
+     * @param currentX Where the current piece is currently located (X position)
+     * @param currentY Where the current piece is currently located (Y position)
+     * @return The planned moves
+     */
+    public default MovePlan planMoves(TetrisBoard board, TetrisPiece piece, TetrisPiece[] preview, int currentX, int currentY) {
+        return planMoves(board, piece, currentX, currentY);
+    }
+}
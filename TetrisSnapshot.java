@@ -0,0 +1,327 @@
+package model;
+
+import java.io.Serializable;
+
+/** An immutable Tetris board, for search code that explores many positions at once.
+ * Placing a piece returns a new snapshot rather than changing this one, so a snapshot
+ * can be shared freely between threads and never needs to be undone.
+ *
+ * Rows are stored as bitmasks (like TetrisBoard) in small fixed-size chunks. A new snapshot
+ * only copies the chunks it changes and shares every other chunk with the snapshot it came from.
+ */
+public class TetrisSnapshot implements Serializable {
+
+    private static final int CHUNK_BITS = 3; //8 rows to a chunk
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    private final int width; //board height and width
+    private final int height;
+    private final long fullRow; //mask of a completely filled row
+    private final long[][] chunks; //row y is chunks[y >> CHUNK_BITS][y & CHUNK_MASK]
+    private final int[] colCounts; //height of each column
+    private final int maxHeight; //tallest column height
+    private final int rowsCleared; //rows cleared by the placement that produced this snapshot
+
+    /**
+     * Builds a snapshot around the given storage, which must not be modified afterwards.
+     */
+    private TetrisSnapshot(int width, int height, long[][] chunks, int[] colCounts, int maxHeight, int rowsCleared) {
+        this.width = width;
+        this.height = height;
+        this.fullRow = (width == Long.SIZE) ? -1L : (1L << width) - 1;
+        this.chunks = chunks;
+        this.colCounts = colCounts;
+        this.maxHeight = maxHeight;
+        this.rowsCleared = rowsCleared;
+    }
+
+    /**
+     * Returns an empty snapshot of the given width and height measured in blocks.
+     *
+     * @param width  width, at most 64
+     * @param height height
+     * @return empty snapshot
+     */
+    public static TetrisSnapshot empty(int width, int height) {
+        if (width < 1 || width > Long.SIZE || height < 1)
+            throw new IllegalArgumentException("Bad board size: " + width + "x" + height);
+        long[][] chunks = new long[(height + CHUNK_MASK) >> CHUNK_BITS][];
+        long[] blank = new long[CHUNK_ROWS]; //every chunk of an empty board is the same (empty) chunk
+        for (int i = 0; i < chunks.length; i++) chunks[i] = blank;
+        return new TetrisSnapshot(width, height, chunks, new int[width], 0, 0);
+    }
+
+    /**
+     * Returns a snapshot holding the blocks currently on the given board, which may be at most 64 wide.
+     * Only the rows below the board's max height are copied.
+     *
+     * @param board board to copy
+     * @return snapshot of the board
+     */
+    public static TetrisSnapshot of(TetrisBoard board) {
+        if (board.getWordsPerRow() > 1)
+            throw new IllegalArgumentException("Snapshots hold boards up to 64 wide, not " + board.getWidth());
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int top = board.getMaxHeight();
+        long[][] chunks = new long[(height + CHUNK_MASK) >> CHUNK_BITS][];
+        long[] blank = new long[CHUNK_ROWS];
+        for (int i = 0; i < chunks.length; i++) {
+            if (i << CHUNK_BITS >= top) {
+                chunks[i] = blank;
+                continue;
+            }
+            chunks[i] = new long[CHUNK_ROWS];
+            for (int r = 0; r < CHUNK_ROWS && (i << CHUNK_BITS) + r < top; r++) {
+                chunks[i][r] = board.getRowMask((i << CHUNK_BITS) + r);
+            }
+        }
+        int[] colCounts = new int[width];
+        for (int x = 0; x < width; x++) colCounts[x] = board.getColumnHeight(x);
+        return new TetrisSnapshot(width, height, chunks, colCounts, top, 0);
+    }
+
+    /**
+     * Returns a new mutable board holding the same blocks as this snapshot, for a thread
+     * that wants to explore from here with placePiece() and undo().
+     *
+     * @param historyDepth number of placements the new board can undo
+     * @return a new, committed board
+     */
+    public TetrisBoard fork(int historyDepth) {
+        TetrisBoard board = new TetrisBoard(width, height, historyDepth);
+        board.newGame();
+        for (int y = 0; y < maxHeight; y++) {
+            board.setRowMask(y, getRowMask(y));
+        }
+        board.settleTallies(maxHeight);
+        return board;
+    }
+
+    /**
+     * Returns a new mutable board holding the same blocks as this snapshot.
+     *
+     * @return a new, committed board with the default history depth
+     */
+    public TetrisBoard fork() {
+        return fork(TetrisBoard.DEFAULT_HISTORY_DEPTH);
+    }
+
+    /**
+     * Returns the snapshot that results from placing the piece at x,y and then clearing
+     * any filled rows. This snapshot is not changed.
+     *
+     * @param piece piece to place
+     * @param x     placement position, x
+     * @param y     placement position, y
+     * @return the new snapshot, or null if the piece is out of bounds or collides with blocks
+     */
+    public TetrisSnapshot withPiece(TetrisPiece piece, int x, int y) {
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int rows = table.getHeight(p);
+        if (x < 0 || y < 0 || x + table.getWidth(p) > width || y + rows > height) {
+            return null;
+        }
+        for (int r = 0; r < rows; r++) {
+            if ((getRowMask(y + r) & (table.getRowMask(p, r) << x)) != 0) return null;
+        }
+
+        long[][] newChunks = chunks.clone();
+        int[] newCounts = colCounts.clone();
+        int newMax = Math.max(maxHeight, y + rows);
+        int lowestFull = -1;
+        int copied = -1; //last chunk copied, the piece rows are contiguous
+        for (int r = 0; r < rows; r++) {
+            int row = y + r;
+            int c = row >> CHUNK_BITS;
+            if (c != copied) {
+                newChunks[c] = newChunks[c].clone();
+                copied = c;
+            }
+            long cells = table.getRowMask(p, r) << x;
+            newChunks[c][row & CHUNK_MASK] |= cells;
+            if (newChunks[c][row & CHUNK_MASK] == fullRow && lowestFull < 0) lowestFull = row;
+            while (cells != 0) {
+                int col = Long.numberOfTrailingZeros(cells);
+                if (newCounts[col] < row + 1) newCounts[col] = row + 1;
+                cells &= cells - 1;
+            }
+        }
+        if (lowestFull < 0) {
+            return new TetrisSnapshot(width, height, newChunks, newCounts, newMax, 0);
+        }
+        return compact(newChunks, newCounts, lowestFull, newMax, copied);
+    }
+
+    /**
+     * Returns the snapshot that results from dropping the piece straight down at x
+     * and then clearing any filled rows.
+     *
+     * @param piece piece to drop
+     * @param x     column of grid
+     * @return the new snapshot, or null if the piece does not fit
+     */
+    public TetrisSnapshot withDrop(TetrisPiece piece, int x) {
+        return withPiece(piece, x, placementHeight(piece, x));
+    }
+
+    /**
+     * Removes the full rows at or above lowestFull, in the chunk arrays of a snapshot under
+     * construction. Chunks below lowestFull are still shared and are left alone.
+     */
+    private TetrisSnapshot compact(long[][] newChunks, int[] newCounts, int lowestFull, int top, int copied) {
+        int first = lowestFull >> CHUNK_BITS;
+        int last = (top - 1) >> CHUNK_BITS;
+        for (int c = first; c <= last; c++) {
+            if (c != copied) newChunks[c] = newChunks[c].clone();
+        }
+        int cleared = 0;
+        for (int y = lowestFull; y < top; y++) {
+            long row = newChunks[y >> CHUNK_BITS][y & CHUNK_MASK];
+            if (row == fullRow) {
+                cleared++;
+            } else if (cleared > 0) {
+                newChunks[(y - cleared) >> CHUNK_BITS][(y - cleared) & CHUNK_MASK] = row;
+            }
+        }
+        for (int y = top - cleared; y < top; y++) {
+            newChunks[y >> CHUNK_BITS][y & CHUNK_MASK] = 0L;
+        }
+
+        //settle the column heights by walking down from the old top
+        long unsettled = fullRow;
+        int newMax = 0;
+        for (int y = top - cleared - 1; y >= 0 && unsettled != 0; y--) {
+            long found = newChunks[y >> CHUNK_BITS][y & CHUNK_MASK] & unsettled;
+            if (found != 0 && newMax == 0) newMax = y + 1;
+            unsettled &= ~found;
+            while (found != 0) {
+                newCounts[Long.numberOfTrailingZeros(found)] = y + 1;
+                found &= found - 1;
+            }
+        }
+        while (unsettled != 0) {
+            newCounts[Long.numberOfTrailingZeros(unsettled)] = 0;
+            unsettled &= unsettled - 1;
+        }
+        return new TetrisSnapshot(width, height, newChunks, newCounts, newMax, cleared);
+    }
+
+    /**
+     * Getter for board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the max column height present in the board.
+     * For an empty board this is 0.
+     *
+     * @return the y position of the last filled square in the tallest column
+     */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Returns the number of rows cleared by the placement that produced this snapshot.
+     *
+     * @return rows cleared (useful for scoring)
+     */
+    public int getRowsCleared() {
+        return rowsCleared;
+    }
+
+    /**
+     * Returns the height of the given column -- i.e. the y value of the highest block + 1.
+     *
+     * @param x grid column, x
+     * @return the height of the given column, x
+     */
+    public int getColumnHeight(int x) {
+        return colCounts[x];
+    }
+
+    /**
+     * Returns the number of filled blocks in the given row.
+     *
+     * @param y grid row, y
+     * @return the number of filled blocks in row y
+     */
+    public int getRowWidth(int y) {
+        return Long.bitCount(getRowMask(y));
+    }
+
+    /**
+     * Returns row y as a bitmask, bit x set if the block at x,y is filled.
+     *
+     * @param y grid row, y
+     * @return the blocks in row y
+     */
+    public long getRowMask(int y) {
+        return chunks[y >> CHUNK_BITS][y & CHUNK_MASK];
+    }
+
+    /**
+     * Returns true if the given block is filled. Blocks outside of the
+     * valid width/height area always return true.
+     *
+     * @param x grid position, x
+     * @param y grid position, y
+     * @return true if the given block at x,y is filled, else false
+     */
+    public boolean getGrid(int x, int y) {
+        if (x >= width || x < 0 || y >= height || y < 0)
+            return true;
+        return (getRowMask(y) & (1L << x)) != 0;
+    }
+
+    /**
+     * Given a piece and an x, returns the y value where the piece will come to rest
+     * if it were dropped straight down at that x.
+     *
+     * @param piece piece to place
+     * @param x     column of grid
+     * @return the y value where the piece will come to rest
+     */
+    public int placementHeight(TetrisPiece piece, int x) {
+        PieceTable table = piece.getTable();
+        int p = piece.getRotationIndex();
+        int pw = table.getWidth(p);
+        int new_height = 0;
+        for (int i = 0; i < pw; i++) {
+            int y = colCounts[x + i] - table.getLowestY(p, i);
+            if (y > new_height) new_height = y;
+        }
+        return new_height;
+    }
+
+    /**
+     * Print the board
+     *
+     * @return a string representation of the board (useful for debugging)
+     */
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        for (int y = height-1; y>=0; y--) {
+            buff.append('|');
+            for (int x=0; x<width; x++) {
+                if (getGrid(x,y)) buff.append('+');
+                else buff.append(' ');
+            }
+            buff.append("|\n");
+        }
+        for (int x=0; x<width+2; x++) buff.append('-');
+        return(buff.toString());
+    }
+}
@@ -1,5 +1,30 @@
 import model.TetrisPiece;
+import model.PieceTable;
+import model.AutoPilot;
+import model.BagPieceGenerator;
+import model.BatchEvaluator;
+import model.BeamSearchPilot;
+import model.DropResults;
+import model.EvaluationCache;
+import model.ExpectimaxPilot;
+import model.LookaheadPilot;
+import model.MovePlan;
+import model.PathFinder;
+import model.PieceGenerator;
+import model.PieceRegistry;
+import model.PilotRunner;
+import model.TetrisPilot;
+import model.Polyominoes;
 import model.TetrisBoard;
+import model.BoardState;
+import model.TetrisSnapshot;
+import model.TetrisModel;
+import model.UniformPieceGenerator;
+import model.WeightTuner;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -120,5 +145,792 @@ public class TetrisTests {
         assertEquals(2, rcleared);
     }
 
+    @Test
+    void testClearRowsTallies() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisPiece stick = new TetrisPiece(TetrisPiece.STICK_STR);
+
+        //two full rows with a stick standing on top of them
+        for (int x = 0; x < 10; x += 2) {
+            board.placePiece(square, x, 0); board.commit();
+        }
+        board.placePiece(stick, 3, 2); board.commit();
+        assertEquals(6, board.getMaxHeight());
+
+        assertEquals(2, board.clearRows());
+        assertEquals(4, board.getMaxHeight());
+        assertEquals(4, board.getColumnHeight(3));
+        assertEquals(0, board.getColumnHeight(0));
+        for (int y = 0; y < 4; y++) {
+            assertEquals(1, board.getRowWidth(y));
+        }
+        assertEquals(0, board.getRowWidth(4));
+    }
+
+    @Test
+    void testUndoRedoHistory() {
+        TetrisBoard board = new TetrisBoard(10,24,8); board.newGame();
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+
+        //five squares fill two rows and clear them
+        for (int x = 0; x < 10; x += 2) {
+            board.placePiece(square, x, 0); board.clearRows(); board.commit();
+        }
+        assertEquals(0, board.getMaxHeight());
+        assertEquals(5, board.getUndoCount());
+
+        assertEquals(2, board.undo(2));
+        assertEquals(2, board.getMaxHeight());
+        assertEquals(6, board.getRowWidth(0));
+        assertTrue(board.getGrid(5, 1));
+        assertFalse(board.getGrid(6, 1));
+
+        assertEquals(2, board.redo(5));
+        assertEquals(0, board.getMaxHeight());
+        assertEquals(0, board.getRowWidth(0));
+
+        assertEquals(5, board.undo(10));
+        assertEquals(0, board.getMaxHeight());
+        assertEquals(0, board.getUndoCount());
+    }
+
+    @Test
+    void testUndoAfterFailedPlacement() {
+        TetrisBoard board = new TetrisBoard(10,24,8); board.newGame();
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        board.placePiece(square, 0, 0); board.commit();
+        board.placePiece(square, 4, 0); board.commit();
+
+        //a failed placement takes no journal entry, and undo() leaves the placements alone
+        assertEquals(TetrisBoard.ADD_BAD, board.placePiece(square, 0, 0));
+        assertEquals(2, board.getUndoCount());
+        board.undo();
+        assertTrue(board.getGrid(4, 0));
+        assertEquals(1, board.undo(1));
+        assertFalse(board.getGrid(4, 0));
+        assertTrue(board.getGrid(0, 0));
+
+        //nor does it push the oldest placement out of a full ring
+        TetrisBoard small = new TetrisBoard(10,24,2); small.newGame();
+        small.placePiece(square, 0, 0); small.commit();
+        small.placePiece(square, 4, 0); small.commit();
+        assertEquals(TetrisBoard.ADD_OUT_BOUNDS, small.placePiece(square, 9, 0)); small.commit();
+        assertEquals(2, small.undo(2));
+        assertFalse(small.getGrid(0, 0));
+        assertFalse(small.getGrid(4, 0));
+    }
+
+    @Test
+    void testUndoTentativePlacement() {
+        TetrisBoard board = new TetrisBoard(10,24,8); board.newGame();
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        board.placePiece(square, 0, 0); board.commit();
+
+        //a piece tried out and undone, as the model does while it falls, can't be redone
+        for (int y = 10; y > 0; y--) {
+            board.placePiece(square, 4, y);
+            board.undo();
+        }
+        assertEquals(0, board.getRedoCount());
+        assertEquals(0, board.redo(1));
+        assertFalse(board.getGrid(4, 1));
+        assertEquals(1, board.getUndoCount());
+        assertEquals(1, board.undo(1));
+        assertEquals(0, board.getMaxHeight());
+    }
+
+    @Test
+    void testUndoTentativePlacementFullHistory() {
+        TetrisBoard board = new TetrisBoard(10,24,3); board.newGame();
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        for (int x = 0; x < 8; x += 2) {
+            board.placePiece(square, x, 0); board.commit();
+        }
+        assertEquals(3, board.getUndoCount()); //the first placement was evicted
+
+        //trying out a piece (and a clear) with the history full must not evict a committed placement
+        board.placePiece(square, 8, 0);
+        board.undo();
+        assertEquals(3, board.getUndoCount(), "Error when testing undo count after a tentative placement");
+        board.placePiece(square, 8, 0);
+        assertEquals(2, board.clearRows());
+        board.undo();
+        assertEquals(3, board.getUndoCount(), "Error when testing undo count after a tentative clear");
+        assertEquals(8, board.getRowWidth(0));
+
+        assertEquals(3, board.undo(3), "Error when testing undo of every committed placement");
+        assertEquals(2, board.getRowWidth(0));
+        assertEquals(3, board.redo(3));
+        assertEquals(8, board.getRowWidth(0));
+    }
+
+    @Test
+    void testSnapshotWithPiece() {
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisSnapshot root = TetrisSnapshot.empty(10,24);
+
+        TetrisSnapshot next = root;
+        for (int x = 0; x < 8; x += 2) {
+            next = next.withDrop(square, x);
+        }
+        assertNull(next.withPiece(square, 0, 0), "Error when testing snapshot collision");
+        TetrisSnapshot full = next.withDrop(square, 8);
+        assertEquals(2, full.getRowsCleared());
+        assertEquals(0, full.getMaxHeight());
+
+        //earlier snapshots are unchanged
+        assertEquals(0, root.getMaxHeight());
+        assertEquals(8, next.getRowWidth(0));
+
+        TetrisBoard board = next.fork();
+        assertEquals(TetrisBoard.ADD_ROW_FILLED, board.placePiece(square, 8, 0));
+        assertEquals(2, board.clearRows());
+    }
+
+    @Test
+    void testWideBoardPlacement() {
+        for (int width : new int[] {65, 130}) {
+            TetrisBoard board = new TetrisBoard(width, 24); board.newGame();
+            assertEquals((width + 63) / 64, board.getWordsPerRow());
+
+            //an S across the boundary between the first two words of the row
+            TetrisPiece s = new TetrisPiece(TetrisPiece.S1_STR);
+            assertEquals(TetrisBoard.ADD_OK, board.placePiece(s, 62, 0));
+            board.commit();
+            assertTrue(board.getGrid(62, 0) && board.getGrid(63, 0) && board.getGrid(63, 1) && board.getGrid(64, 1),
+                    "Error when testing wide board placement");
+            assertFalse(board.getGrid(64, 0));
+            assertEquals(2, board.getRowWidth(0));
+            assertEquals(2, board.getRowWidth(1));
+
+            //the heights on both sides of the boundary, and a collision across it
+            assertEquals(1, board.getColumnHeight(62));
+            assertEquals(2, board.getColumnHeight(63));
+            assertEquals(2, board.getColumnHeight(64));
+            assertEquals(0, board.getColumnHeight(61));
+            assertEquals(2, board.placementHeight(new TetrisPiece(TetrisPiece.SQUARE_STR), 63));
+            assertEquals(TetrisBoard.ADD_BAD, board.placePiece(new TetrisPiece(TetrisPiece.SQUARE_STR), 63, 1));
+            board.undo();
+            assertEquals(TetrisBoard.ADD_OUT_BOUNDS, board.placePiece(s, width - 2, 0));
+            board.undo();
+            assertEquals(2, board.getMaxHeight());
+        }
+    }
+
+    @Test
+    void testWideBoardClearUndoRedo() {
+        TetrisBoard board = new TetrisBoard(130, 24, 4); board.newGame();
+        TetrisPiece block = new TetrisPiece("0 0");
+        TetrisPiece stick = new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0  8 0  9 0");
+        for (int x = 0; x < 120; x += 10) { board.placePiece(stick, x, 0); board.commit(); }
+        board.placePiece(block, 64, 1); board.commit(); //sits above the row, across the first word boundary
+        for (int x = 120; x < 129; x++) { board.placePiece(block, x, 0); board.commit(); }
+        long before = board.getZobristHash();
+
+        //the last block fills row 0 across all three words
+        board.placePiece(block, 129, 0);
+        assertEquals(1, board.clearRows());
+        board.commit();
+        assertEquals(1, board.getRowWidth(0));
+        assertTrue(board.getGrid(64, 0));
+        assertEquals(1, board.getColumnHeight(64));
+        assertEquals(0, board.getColumnHeight(129));
+        assertEquals(1, board.getMaxHeight());
+        long after = board.getZobristHash();
+
+        assertEquals(1, board.undo(1));
+        assertEquals(before, board.getZobristHash());
+        assertEquals(129, board.getRowWidth(0));
+        assertFalse(board.getGrid(129, 0));
+        assertTrue(board.getGrid(64, 1));
+        assertEquals(2, board.getColumnHeight(64));
+
+        assertEquals(1, board.redo(1));
+        assertEquals(after, board.getZobristHash());
+        assertEquals(1, board.getRowWidth(0));
+        assertTrue(board.getGrid(64, 0));
+    }
+
+    @Test
+    void testWideBoardHash() {
+        //the same blocks placed in a different order, and as different pieces, hash the same
+        TetrisBoard a = new TetrisBoard(130, 24); a.newGame();
+        TetrisBoard b = new TetrisBoard(130, 24); b.newGame();
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisPiece block = new TetrisPiece("0 0");
+        a.placePiece(square, 63, 0); a.commit();
+        a.placePiece(square, 127, 0); a.commit();
+        for (int x : new int[] {128, 127}) {
+            for (int y = 0; y < 2; y++) { b.placePiece(block, x, y); b.commit(); }
+        }
+        for (int x : new int[] {64, 63}) {
+            for (int y = 0; y < 2; y++) { b.placePiece(block, x, y); b.commit(); }
+        }
+        assertEquals(a.getZobristHash(), b.getZobristHash());
+        assertEquals(a, b);
+
+        //and a snapshot copy keeps it
+        assertEquals(a.getZobristHash(), a.toState().toBoard().getZobristHash());
+        b.placePiece(block, 65, 0); b.commit();
+        assertNotEquals(a.getZobristHash(), b.getZobristHash());
+    }
+
+    @Test
+    void testModelBoardSize() {
+        TetrisModel model = new TetrisModel(70, 30, 6);
+        assertEquals(70.0, model.getWidth());
+        assertEquals(36.0, model.getHeight());
+        assertEquals(6, model.getBufferZone());
+        assertEquals(70, model.getBoard().getWidth());
+        assertEquals(36, model.getBoard().getHeight());
+        assertEquals(2, model.getBoard().getWordsPerRow());
+
+        //a game on it runs under the autopilot
+        model.setSeed(3);
+        model.setAutoPilotMode();
+        model.startGame();
+        for (int i = 0; i < 2000 && model.isGameOn(); i++) model.modelTick(TetrisModel.MoveType.DOWN);
+        assertTrue(model.getCount() > 1, "Error when testing model board size");
+    }
+
+    @Test
+    void testBoardHashAndEquals() {
+        TetrisPiece square = new TetrisPiece(TetrisPiece.SQUARE_STR);
+        TetrisPiece stick = new TetrisPiece(TetrisPiece.STICK_STR);
+        TetrisBoard boardA = new TetrisBoard(10,24); boardA.commit();
+        TetrisBoard boardB = new TetrisBoard(10,24); boardB.commit();
+
+        //same blocks, placed in a different order
+        boardA.placePiece(square, 0,0); boardA.commit();
+        boardA.placePiece(stick, 5,0); boardA.commit();
+        boardB.placePiece(stick, 5,0); boardB.commit();
+        assertNotEquals(boardA.getZobristHash(), boardB.getZobristHash());
+        boardB.placePiece(square, 0,0); boardB.commit();
+
+        assertEquals(boardA.getZobristHash(), boardB.getZobristHash());
+        assertEquals(boardA.hashCode(), boardB.hashCode());
+        assertTrue(boardA.equals(boardB), "Error when testing board equality");
+
+        long before = boardA.getZobristHash();
+        boardA.placePiece(square, 2,0);
+        assertFalse(boardA.equals(boardB), "Error when testing board equality");
+        boardA.undo();
+        assertEquals(before, boardA.getZobristHash());
+    }
+
+    @Test
+    void testBoardStateRoundTrip() {
+        TetrisBoard board = new TetrisBoard(10,24); board.commit();
+        board.placePiece(new TetrisPiece(TetrisPiece.L1_STR), 0,0); board.commit();
+        board.placePiece(new TetrisPiece(TetrisPiece.S1_STR), 7,0); board.commit();
+
+        BoardState state = board.toState();
+        assertEquals(4, BoardState.wordCount(10,24));
+        assertTrue(state.getGrid(0,2));
+        assertFalse(state.getGrid(1,1));
+
+        long[] store = new long[3 * BoardState.wordCount(10,24)];
+        state.writeTo(store, BoardState.wordCount(10,24));
+        BoardState copy = BoardState.readFrom(store, BoardState.wordCount(10,24), 10, 24);
+        assertEquals(state, copy);
+
+        TetrisBoard restored = copy.toBoard();
+        assertTrue(restored.equals(board), "Error when testing board state round trip");
+        assertEquals(board.getMaxHeight(), restored.getMaxHeight());
+        assertEquals(board.getColumnHeight(8), restored.getColumnHeight(8));
+    }
+
+    @Test
+    void testPieceTable() {
+        PieceTable table = PieceTable.standard();
+        assertEquals(7, table.getPieceCount());
+        assertEquals(4, table.getMaxRotations());
+        assertEquals(2, table.getRotationCount(0)); //stick
+        assertEquals(1, table.getRotationCount(5)); //square
+
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        TetrisPiece s2 = pieces[4].fastRotation();
+        int index = table.indexOf(s2);
+        assertEquals(table.index(4, 1), index);
+        assertTrue(table.getPiece(index) == s2, "Error when testing piece table lookup");
+        assertEquals(table.index(4, 0), table.getNext(index));
+
+        assertEquals(s2.getWidth(), table.getWidth(index));
+        assertEquals(s2.getHeight(), table.getHeight(index));
+        for (int x = 0; x < s2.getWidth(); x++) {
+            assertEquals(s2.getLowestYVals()[x], table.getLowestY(index, x));
+            assertEquals(s2.getHighestYVals()[x], table.getHighestY(index, x));
+        }
+        for (int c = 0; c < table.getCellCount(index); c++) {
+            long row = table.getRowMask(index, table.getCellY(index, c));
+            assertTrue((row & (1L << table.getCellX(index, c))) != 0, "Error when testing piece row masks");
+        }
+
+        //every ring has its own table, indexed by rotation index, shared by its rotations
+        PieceTable ring = s2.getTable();
+        assertSame(ring, pieces[4].getTable());
+        assertEquals(2, ring.getRotationCount(0));
+        assertSame(s2, ring.getPiece(s2.getRotationIndex()));
+        TetrisPiece single = new TetrisPiece("0 0  1 0  1 1");
+        assertEquals(1, single.getTable().getRotationCount(0));
+        assertSame(single, single.getTable().getPiece(0));
+    }
+
+    @Test
+    void testPieceRegistry() {
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        TetrisPiece pyramid = new TetrisPiece(TetrisPiece.PYRAMID_STR);
+        assertEquals(-1, pyramid.getId());
+        assertEquals(pieces[6].hashCode(), pyramid.hashCode());
+
+        TetrisPiece canonical = PieceRegistry.intern(pyramid);
+        assertTrue(canonical == pieces[6], "Error when testing piece interning");
+        assertTrue(PieceRegistry.get(canonical.getId()) == canonical, "Error when testing piece ids");
+        assertNotEquals(pieces[6].getId(), pieces[6].fastRotation().getId());
+
+        //all of these points are in the pyramid, but it is not the same piece
+        TetrisPiece smaller = new TetrisPiece("0 0  1 0  1 1");
+        assertFalse(smaller.equals(pyramid), "Error when testing piece equality");
+        assertFalse(pyramid.equals(smaller), "Error when testing piece equality");
+    }
+
+    @Test
+    void testPolyominoes() {
+        assertEquals(19, Polyominoes.getPieces(4, Polyominoes.Kind.FIXED).length);
+        assertEquals(7, Polyominoes.getPieces(4, Polyominoes.Kind.ONE_SIDED).length);
+        assertEquals(5, Polyominoes.getPieces(4, Polyominoes.Kind.FREE).length);
+        assertEquals(18, Polyominoes.getPieces(5, Polyominoes.Kind.ONE_SIDED).length);
+        assertEquals(12, Polyominoes.getPieces(5, Polyominoes.Kind.FREE).length);
+
+        //the one-sided tetrominoes are the standard pieces
+        for (TetrisPiece piece : TetrisPiece.getPieces()) {
+            boolean found = false;
+            for (TetrisPiece shape : Polyominoes.getPieces(4, Polyominoes.Kind.ONE_SIDED)) {
+                TetrisPiece rotation = shape;
+                do {
+                    found |= rotation.equals(piece);
+                    rotation = rotation.fastRotation();
+                } while (rotation != shape);
+            }
+            assertTrue(found, "Error when testing polyomino generation");
+        }
+        assertEquals(18, Polyominoes.getTable(5, Polyominoes.Kind.ONE_SIDED).getPieceCount());
+    }
+
+    @Test
+    void testPieceGenerators() {
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        PieceGenerator bag = new BagPieceGenerator(pieces, 42);
+        for (int n = 0; n < 5; n++) {
+            //every bag deals each piece exactly once
+            boolean[] dealt = new boolean[pieces.length];
+            for (int i = 0; i < pieces.length; i++) {
+                TetrisPiece piece = bag.next();
+                for (int p = 0; p < pieces.length; p++) {
+                    if (pieces[p] == piece) {
+                        assertFalse(dealt[p], "Error when testing bag generator");
+                        dealt[p] = true;
+                    }
+                }
+            }
+        }
+
+        PieceGenerator uniform = new UniformPieceGenerator(pieces, 7);
+        uniform.next();
+        PieceGenerator copy = uniform.copy();
+        PieceGenerator reseeded = new UniformPieceGenerator(pieces, 0);
+        reseeded.setSeed(7);
+        reseeded.next();
+        for (int i = 0; i < 20; i++) {
+            TetrisPiece piece = uniform.next();
+            assertTrue(piece == copy.next(), "Error when testing generator copies");
+            assertTrue(piece == reseeded.next(), "Error when testing generator seeds");
+        }
+    }
+
+    @Test
+    void testModelPreview() {
+        TetrisModel model = new TetrisModel();
+        model.setSeed(123);
+        model.startGame();
+        TetrisPiece[] preview = model.getPreview();
+        assertEquals(TetrisModel.PREVIEW_SIZE, preview.length);
+
+        model.addNewPiece();
+        assertTrue(preview[1] == model.getPreview()[0], "Error when testing piece preview");
+
+        //the same seed gives the same pieces
+        model.newGame();
+        assertArrayEquals(preview, model.getPreview());
+    }
+
+    @Test
+    void testBoardFeatures() {
+        TetrisBoard board = new TetrisBoard(4,6); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  0 1"), 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0  1 0"), 1, 1); board.commit();
+
+        double[] features = new double[AutoPilot.FEATURE_COUNT];
+        AutoPilot.computeFeatures(board, features);
+        assertEquals(6, features[AutoPilot.AGGREGATE_HEIGHT]);
+        assertEquals(2, features[AutoPilot.HOLES]);
+        assertEquals(2, features[AutoPilot.BUMPINESS]);
+        assertEquals(2, features[AutoPilot.WELLS]);
+        assertEquals(4, features[AutoPilot.ROW_TRANSITIONS]);
+        assertEquals(5, features[AutoPilot.COLUMN_TRANSITIONS]);
+
+        //the pilot leaves the board as it found it
+        TetrisBoard copy = board.toState().toBoard();
+        new AutoPilot().bestMove(board, TetrisPiece.getPieces()[0], 0, 4);
+        assertEquals(copy, board);
+    }
+
+    @Test
+    void testDropAll() {
+        TetrisBoard board = new TetrisBoard(4,6); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0"), 0, 0); board.commit();
+        board.placePiece(new TetrisPiece("0 0"), 0, 1); board.commit();
+
+        TetrisPiece stick = TetrisPiece.getPieces()[0];
+        DropResults results = new DropResults(board.getWidth());
+        int count = board.dropAll(stick, results);
+        assertEquals(count, results.getCount());
+        assertEquals(5, count); //four columns upright, one position lying down
 
+        for (int i = 0; i < count; i++) {
+            TetrisPiece piece = results.getPiece(i);
+            int x = results.getX(i);
+            assertEquals(board.placementHeight(piece, x), results.getY(i));
+            board.placePiece(piece, x, results.getY(i));
+            assertEquals(board.clearRows(), results.getRowsCleared(i));
+            if (results.getRowsCleared(i) == 0) { //only the columns under the piece are stored
+                assertEquals(x, results.getFirstColumn(i));
+                assertEquals(piece.getWidth(), results.getColumnCount(i));
+            }
+            for (int c = 0; c < board.getWidth(); c++) {
+                assertEquals(board.getColumnHeight(c), results.getColumnHeight(i, c), "Error when testing dropAll heights");
+            }
+            board.undo();
+        }
+        assertEquals(2, board.getColumnHeight(0)); //the board itself is untouched
+    }
+
+    @Test
+    void testMovePlan() {
+        TetrisPiece stick = TetrisPiece.getPieces()[0]; //upright
+        TetrisPiece lying = stick.fastRotation();
+        MovePlan plan = MovePlan.toward(stick, 5, lying, 2);
+
+        //rotating the upright stick moves it (1-4)/2 = -1 to the left, then two more steps
+        assertEquals(4, plan.size());
+        assertEquals(TetrisModel.MoveType.ROTATE, plan.getMove(0));
+        assertEquals(TetrisModel.MoveType.LEFT, plan.getMove(1));
+        assertEquals(TetrisModel.MoveType.LEFT, plan.getMove(2));
+        assertEquals(TetrisModel.MoveType.DROP, plan.getMove(3));
+        assertTrue(plan.isOnTrack(1, lying, 4), "Error when testing plan tracking");
+        assertFalse(plan.isOnTrack(1, stick, 5), "Error when testing plan tracking");
+        assertFalse(plan.isOnTrack(4, lying, 2), "Error when testing plan tracking");
+    }
+
+    @Test
+    void testLookaheadPilot() {
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0"), 0, 0); board.commit();
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        TetrisPiece[] preview = {pieces[1], pieces[2]};
+
+        //without lookahead it agrees with the one-piece search
+        MovePlan single = new AutoPilot().planMoves(board, pieces[3], 4, 20);
+        MovePlan none = new LookaheadPilot(AutoPilot.DEFAULT_WEIGHTS, 0, 2).planMoves(board, pieces[3], preview, 4, 20);
+        assertTrue(single.getTarget() == none.getTarget(), "Error when testing lookahead pilot");
+        assertEquals(single.getTargetX(), none.getTargetX());
+
+        //and the choice does not depend on the number of threads
+        MovePlan one = new LookaheadPilot(AutoPilot.DEFAULT_WEIGHTS, 2, 1).planMoves(board, pieces[3], preview, 4, 20);
+        MovePlan many = new LookaheadPilot(AutoPilot.DEFAULT_WEIGHTS, 2, 4).planMoves(board, pieces[3], preview, 4, 20);
+        assertTrue(one.getTarget() == many.getTarget(), "Error when testing lookahead pilot");
+        assertEquals(one.getTargetX(), many.getTargetX());
+        assertEquals(1, board.getMaxHeight()); //the board itself is untouched
+    }
+
+    @Test
+    void testExpectimaxPilot() {
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0"), 0, 0); board.commit();
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+
+        //at depth 0 it agrees with the one-piece search
+        MovePlan single = new AutoPilot().planMoves(board, pieces[3], 4, 20);
+        MovePlan greedy = new ExpectimaxPilot(AutoPilot.DEFAULT_WEIGHTS, pieces, 0).planMoves(board, pieces[3], 4, 20);
+        assertTrue(single.getTarget() == greedy.getTarget(), "Error when testing expectimax pilot");
+        assertEquals(single.getTargetX(), greedy.getTargetX());
+
+        //with a known next piece it agrees with the lookahead search
+        TetrisPiece[] preview = {pieces[0]};
+        MovePlan known = new ExpectimaxPilot(AutoPilot.DEFAULT_WEIGHTS, pieces, 1).planMoves(board, pieces[3], preview, 4, 20);
+        MovePlan ahead = new LookaheadPilot(AutoPilot.DEFAULT_WEIGHTS, 1, 1).planMoves(board, pieces[3], preview, 4, 20);
+        assertTrue(known.getTarget() == ahead.getTarget(), "Error when testing expectimax pilot");
+        assertEquals(known.getTargetX(), ahead.getTargetX());
+
+        new ExpectimaxPilot().planMoves(board, pieces[3], 4, 20);
+        assertEquals(1, board.getMaxHeight()); //the board itself is untouched
+    }
+
+    @Test
+    void testExpectimaxMemo() {
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0"), 0, 0); board.commit();
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        ExpectimaxPilot pilot = new ExpectimaxPilot(AutoPilot.DEFAULT_WEIGHTS, pieces, 1);
+
+        //the memo is kept between decisions, so the same position again is answered from it
+        MovePlan first = pilot.planMoves(board, pieces[3], 4, 20);
+        long hits = pilot.getMemoHits();
+        MovePlan again = pilot.planMoves(board, pieces[3], 4, 20);
+        int drops = board.dropAll(pieces[3], new DropResults(10));
+        assertTrue(pilot.getMemoHits() >= hits + drops, "Error when testing expectimax memo hits"); //one per drop
+        assertTrue(first.getTarget() == again.getTarget(), "Error when testing expectimax memo");
+        assertEquals(first.getTargetX(), again.getTargetX());
+
+        //a board of another size starts from an empty memo, and plans as a new pilot would
+        TetrisBoard wide = new TetrisBoard(12,24); wide.newGame();
+        wide.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0"), 0, 0); wide.commit();
+        MovePlan resized = pilot.planMoves(wide, pieces[3], 4, 20);
+        MovePlan fresh = new ExpectimaxPilot(AutoPilot.DEFAULT_WEIGHTS, pieces, 1).planMoves(wide, pieces[3], 4, 20);
+        assertTrue(resized.getTarget() == fresh.getTarget(), "Error when testing expectimax memo after a resize");
+        assertEquals(resized.getTargetX(), fresh.getTargetX());
+    }
+
+    @Test
+    void testBeamSearchPilot() {
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0"), 0, 0); board.commit();
+        TetrisPiece[] pieces = TetrisPiece.getPieces();
+        TetrisPiece[] preview = {pieces[1], pieces[2], pieces[0]};
+
+        //out of time straight away, it still finishes the one-piece search
+        BeamSearchPilot hurried = new BeamSearchPilot(AutoPilot.DEFAULT_WEIGHTS, 4, 0);
+        MovePlan quick = hurried.planMoves(board, pieces[3], preview, 4, 20);
+        MovePlan single = new AutoPilot().planMoves(board, pieces[3], 4, 20);
+        assertEquals(1, hurried.getLastDepth());
+        assertTrue(single.getTarget() == quick.getTarget(), "Error when testing beam search pilot");
+        assertEquals(single.getTargetX(), quick.getTargetX());
+
+        //with time to spare it searches the whole preview
+        BeamSearchPilot patient = new BeamSearchPilot(AutoPilot.DEFAULT_WEIGHTS, 4, 10_000_000_000L);
+        patient.planMoves(board, pieces[3], preview, 4, 20);
+        assertEquals(4, patient.getLastDepth());
+        assertEquals(1, board.getMaxHeight()); //the board itself is untouched
+    }
+
+    @Test
+    void testPilotRunner() throws InterruptedException {
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        TetrisPiece piece = TetrisPiece.getPieces()[3];
+        PilotRunner runner = new PilotRunner(new AutoPilot());
+        runner.submit(1, board, piece, new TetrisPiece[0], 4, 20);
+        runner.submit(2, board, piece, new TetrisPiece[0], 4, 20);
+
+        //the plan for the latest request turns up without the caller ever blocking
+        MovePlan plan = null;
+        for (int i = 0; i < 500 && plan == null; i++) {
+            plan = runner.poll(2);
+            if (plan == null) Thread.sleep(10);
+        }
+        assertNotNull(plan);
+        assertEquals(new AutoPilot().planMoves(board, piece, 4, 20).getTargetX(), plan.getTargetX());
+        assertNull(runner.poll(1)); //nothing stale is left behind
+        runner.shutdown();
+    }
+
+    @Test
+    void testPilotRunnerShutdownWaits() throws InterruptedException {
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        TetrisPiece piece = TetrisPiece.getPieces()[3];
+        boolean[] searching = {false};
+        TetrisPilot slow = (b, p, x, y) -> {
+            searching[0] = true;
+            long end = System.nanoTime() + 200_000_000L; //ignores interrupts, as the real searches do
+            while (System.nanoTime() < end) Thread.onSpinWait();
+            searching[0] = false;
+            return TetrisModel.MoveType.DOWN;
+        };
+        PilotRunner runner = new PilotRunner(slow);
+        runner.submit(1, board, piece, new TetrisPiece[0], 4, 20);
+        for (int i = 0; i < 500 && !searching[0]; i++) Thread.sleep(1);
+
+        //shutdown() returns only once the search is over, so the pilot can be used again straight away
+        runner.shutdown();
+        assertFalse(searching[0], "Error when testing pilot runner shutdown");
+        assertNull(runner.poll(1));
+
+        //human play stops the runner, and autopilot mode starts a new one
+        TetrisModel model = new TetrisModel();
+        model.setSeed(7);
+        model.setAsyncPilot(true);
+        model.setAutoPilotMode();
+        model.startGame();
+        for (int i = 0; i < 20; i++) model.modelTick(TetrisModel.MoveType.DOWN);
+        model.setHumanPilotMode();
+        model.modelTick(TetrisModel.MoveType.DOWN);
+        model.setAsyncPilot(false);
+        model.setAutoPilotMode();
+        for (int i = 0; i < 200 && model.isGameOn(); i++) model.modelTick(TetrisModel.MoveType.DOWN);
+        assertTrue(model.getCount() > 1, "Error when testing pilot modes");
+    }
+
+    @Test
+    void testPathFinderTuck() {
+        TetrisBoard board = new TetrisBoard(5,6); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0"), 2, 2); board.commit(); //an overhang over columns 2-4
+        TetrisPiece domino = TetrisPiece.makeFastRotations(new TetrisPiece("0 0  1 0"));
+        assertTrue(board.canPlace(domino, 3, 0));
+        assertFalse(board.canPlace(domino, 3, 2));
+
+        PathFinder finder = new PathFinder(5, 6);
+        int count = finder.search(board, domino, 1, 5);
+        int tuck = -1;
+        for (int i = 0; i < count; i++) {
+            if (finder.getLockPiece(i) == domino && finder.getLockX(i) == 3 && finder.getLockY(i) == 0) tuck = i;
+        }
+        assertTrue(tuck >= 0, "Error when testing path finder: tuck not found");
+
+        //a straight drop can't get there, so the piece has to slide in underneath
+        TetrisModel.MoveType[] path = finder.getPath(tuck);
+        assertEquals(TetrisModel.MoveType.RIGHT, path[path.length - 1]);
+        assertEquals(5, path.length); //left, drop, then right three times
+    }
+
+    @Test
+    void testEvaluationCache() {
+        EvaluationCache cache = new EvaluationCache(3);
+        assertEquals(4, cache.getCapacity());
+        assertTrue(Double.isNaN(cache.get(42L)), "Error when testing evaluation cache");
+        cache.put(42L, 1.5);
+        assertEquals(1.5, cache.get(42L));
+        cache.put(42L, -2.0); //same key, replaced in place
+        assertEquals(-2.0, cache.get(42L));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        //a full bucket gives up the slot used less recently
+        cache.put(1L << 32 | 1L, 1.0);
+        cache.put(2L << 32 | 2L, 2.0);
+        cache.get(1L << 32 | 1L);
+        cache.put(3L << 32 | 3L, 3.0);
+        assertEquals(1.0, cache.get(1L << 32 | 1L));
+        assertTrue(Double.isNaN(cache.get(2L << 32 | 2L)), "Error when testing evaluation cache");
+        assertEquals(3.0, cache.get(3L << 32 | 3L));
+
+        //cached scores are the same as computed ones, whatever the rows cleared
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  1 1"), 3, 0); board.commit();
+        AutoPilot plain = new AutoPilot();
+        AutoPilot cached = new AutoPilot();
+        cached.setCache(new EvaluationCache(64));
+        assertEquals(plain.evaluateBoard(board, 0), cached.evaluateBoard(board, 0));
+        assertEquals(plain.evaluateBoard(board, 2), cached.evaluateBoard(board, 2));
+        assertEquals(plain.evaluateBoard(board, 2), cached.evaluateBoard(board, 2));
+
+        //the same cells on a board of another size hash the same, but don't share a score
+        TetrisBoard wide = new TetrisBoard(12,24); wide.newGame();
+        wide.placePiece(new TetrisPiece("0 0  1 0  2 0  1 1"), 3, 0); wide.commit();
+        assertEquals(board.getZobristHash(), wide.getZobristHash());
+        assertEquals(plain.evaluateBoard(wide, 0), cached.evaluateBoard(wide, 0), "Error when testing cache across board sizes");
+        assertNotEquals(cached.evaluateBoard(board, 0), cached.evaluateBoard(wide, 0));
+        cache.clear();
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void testBatchEvaluator() {
+        //a board with a hole and an overhang, and a row one block short of clearing
+        TetrisBoard board = new TetrisBoard(10,24); board.newGame();
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  3 0  4 0  5 0  6 0  7 0  8 0"), 0, 0);
+        board.placePiece(new TetrisPiece("0 0  0 1  1 1"), 2, 1);
+        board.commit();
+        AutoPilot pilot = new AutoPilot();
+        BatchEvaluator batch = new BatchEvaluator();
+        DropResults drops = new DropResults(board.getWidth());
+        for (TetrisPiece piece : TetrisPiece.getPieces()) {
+            int count = board.dropAll(piece, drops);
+            double[] scores = new double[count];
+            assertEquals(count, batch.evaluate(board, drops, scores));
+            for (int i = 0; i < count; i++) {
+                TetrisPiece rotation = drops.getPiece(i);
+                board.placePiece(rotation, drops.getX(i), drops.getY(i));
+                int cleared = board.clearRows();
+                assertEquals(pilot.evaluateBoard(board, cleared), scores[i], "Error when testing batch evaluator");
+                board.undo();
+            }
+        }
+
+        //two 3-wide boards in structure-of-arrays form: heights 1,0,2 and 2,2,2
+        int[] heights = {1, 2,  0, 2,  2, 2};
+        double[] scores = new double[2];
+        new BatchEvaluator(new double[] {1, 10, 100, 1000, 0, 0, -1}).evaluate(2, 3, heights,
+                new int[] {3, 5}, new int[] {4, 2}, new int[] {3, 3}, new int[] {0, 1}, scores);
+        assertEquals(3 + 10 * 0 + 100 * 3 + 1000 * 1, scores[0]);
+        assertEquals(6 + 10 * 1 - 1, scores[1]);
+    }
+
+    @Test
+    void testBatchEvaluatorWideBoard() {
+        //blocks on both sides of the word boundaries, and a row one block short of clearing
+        TetrisBoard board = new TetrisBoard(130, 24); board.newGame();
+        TetrisPiece single = new TetrisPiece("0 0");
+        for (int x = 0; x < 130; x++) {
+            if (x != 100) board.placePiece(single, x, 0);
+        }
+        board.placePiece(new TetrisPiece("0 0  1 0  2 0  0 1"), 62, 1);
+        board.placePiece(new TetrisPiece("0 0  0 1  0 2"), 128, 1);
+        board.commit();
+        AutoPilot pilot = new AutoPilot();
+        BatchEvaluator batch = new BatchEvaluator();
+        DropResults drops = new DropResults(board.getWidth());
+        for (TetrisPiece piece : TetrisPiece.getPieces()) {
+            int count = board.dropAll(piece, drops);
+            double[] scores = new double[count];
+            batch.evaluate(board, drops, scores);
+            for (int i = 0; i < count; i++) {
+                board.placePiece(drops.getPiece(i), drops.getX(i), drops.getY(i));
+                int cleared = board.clearRows();
+                assertEquals(pilot.evaluateBoard(board, cleared), scores[i], "Error when testing batch evaluator on a wide board");
+                board.undo();
+            }
+        }
+    }
+
+    @Test
+    void testWeightTuner() throws Exception {
+        //the same seed plays the same game
+        assertEquals(WeightTuner.playGame(AutoPilot.DEFAULT_WEIGHTS, 5, 40), WeightTuner.playGame(AutoPilot.DEFAULT_WEIGHTS, 5, 40));
+
+        //a generation on two threads, checkpointed and written out
+        File checkpoint = File.createTempFile("tuner", ".ser");
+        File weights = File.createTempFile("weights", ".txt");
+        checkpoint.deleteOnExit();
+        weights.deleteOnExit();
+        WeightTuner tuner = new WeightTuner(6, 2, 40, 1);
+        int[] reported = {0};
+        tuner.run(1, 2, checkpoint, weights, t -> reported[0] = t.getGeneration());
+        assertEquals(1, reported[0]);
+        assertEquals(1, tuner.getGeneration());
+        assertArrayEquals(tuner.getBestWeights(), AutoPilot.loadWeights(weights), 0.0);
+        new AutoPilot(AutoPilot.loadWeights(weights)); //loads into a pilot
+
+        //a single thread gives the same result, and so does carrying on from the checkpoint
+        WeightTuner alone = new WeightTuner(6, 2, 40, 1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        alone.runGeneration(pool);
+        assertArrayEquals(tuner.getMean(), alone.getMean(), 0.0);
+        WeightTuner resumed = WeightTuner.loadCheckpoint(checkpoint);
+        assertEquals(1, resumed.getGeneration());
+        resumed.runGeneration(pool);
+        alone.runGeneration(pool);
+        pool.shutdown();
+        assertArrayEquals(alone.getMean(), resumed.getMean(), 0.0);
+        assertEquals(alone.getBestFitness(), resumed.getBestFitness());
+    }
 }
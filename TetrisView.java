@@ -252,6 +252,7 @@ public class TetrisView {
         RadioButton chk = (RadioButton)value.getToggleGroup().getSelectedToggle();
         String strVal = chk.getText();
         if (strVal.equals("Computer (Default)")){
+            this.model.setAsyncPilot(true); //search off the FX thread so painting never waits for it
             this.model.setAutoPilotMode();
             gameModeLabel.setText("Player is: Computer (Default)");
         } else if (strVal.equals("Human")) {
@@ -309,7 +310,7 @@ public class TetrisView {
 
         // Draw the line separating the top area on the screen
         gc.setStroke(Color.BLACK);
-        int spacerY = yPixel(this.model.getBoard().getHeight() - this.model.BUFFERZONE - 1);
+        int spacerY = yPixel(this.model.getBoard().getHeight() - this.model.getBufferZone() - 1);
         gc.strokeLine(0, spacerY, this.width-1, spacerY);
 
         // Factor a few things out to help the optimizer
@@ -0,0 +1,44 @@
+package model;
+
+/** Picks each piece independently and uniformly at random, as the original game did.
+ */
+public class UniformPieceGenerator implements PieceGenerator {
+
+    private final TetrisPiece[] pieces; //pieces to choose from
+    private final SplitMix64 random; //advanced a step per piece
+
+    /**
+     * Constructor for a generator of the given pieces
+     *
+     * @param pieces pieces to choose from
+     * @param seed   seed for the stream
+     */
+    public UniformPieceGenerator(TetrisPiece[] pieces, long seed) {
+        if (pieces.length == 0) throw new IllegalArgumentException("No pieces to choose from");
+        this.pieces = pieces;
+        this.random = new SplitMix64(seed);
+    }
+
+    /**
+     * Constructor for a copy that carries on the given random stream
+     */
+    private UniformPieceGenerator(TetrisPiece[] pieces, SplitMix64 random) {
+        this.pieces = pieces;
+        this.random = random;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    @Override
+    public TetrisPiece next() {
+        return pieces[random.nextInt(pieces.length)];
+    }
+
+    @Override
+    public PieceGenerator copy() {
+        return new UniformPieceGenerator(pieces, random.copy());
+    }
+}
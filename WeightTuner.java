@@ -0,0 +1,274 @@
+package model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/** Tunes the AutoPilot weights by self-play, without a view, using the cross-entropy method.
+ * Each generation samples a population of weight vectors from a normal distribution per weight,
+ * plays the same seeded games with every one of them, and refits the distribution to the best
+ * few (the elite), with a little extra spread that shrinks over the generations so the search
+ * doesn't settle too early. The first member of every population is the mean itself.
+ *
+ * A candidate's fitness is its average score. Every game is a separate task on a fixed thread
+ * pool, so a generation keeps every core busy until its last few games; the games of a
+ * generation use the same seeds for every candidate, and the results are gathered in candidate
+ * order, so a run gives the same weights however many threads it has.
+ *
+ * The tuner can be checkpointed to a file after any generation and resumed from it, and the best
+ * weights of the latest generation can be written out for AutoPilot.loadWeights().
+ * Run it from the command line with main(), e.g. java model.WeightTuner 50 100 8 5000
+ */
+public class WeightTuner implements Serializable {
+
+    public static final double INITIAL_DEVIATION = 0.25; //spread of each weight in the first generation
+    public static final double INITIAL_NOISE = 0.01; //extra variance added to each weight when refitting
+    public static final double NOISE_STEP = 0.0002; //how much the extra variance shrinks each generation
+
+    private final int populationSize; //candidates per generation
+    private final int eliteSize; //best candidates the distribution is refitted to
+    private final int games; //games played by each candidate
+    private final int pieceCap; //pieces after which a game is stopped
+    private final long seed; //seed of the first game; later games count up from it
+    private final Random random; //draws the candidates
+
+    private final double[] mean; //the distribution the candidates are drawn from
+    private final double[] deviation;
+    private int generation; //generations finished
+    private double[] bestWeights; //best candidate of the latest generation
+    private double bestFitness;
+
+    /**
+     * Constructor for a tuner that starts from the default weights
+     *
+     * @param populationSize candidates per generation
+     * @param games          games played by each candidate
+     * @param pieceCap       pieces after which a game is stopped
+     * @param seed           seed for the candidates and the games
+     */
+    public WeightTuner(int populationSize, int games, int pieceCap, long seed) {
+        if (populationSize < 2) throw new IllegalArgumentException("Bad population size: " + populationSize);
+        if (games < 1) throw new IllegalArgumentException("Bad number of games: " + games);
+        if (pieceCap < 1) throw new IllegalArgumentException("Bad piece cap: " + pieceCap);
+        this.populationSize = populationSize;
+        this.eliteSize = Math.max(2, populationSize / 10);
+        this.games = games;
+        this.pieceCap = pieceCap;
+        this.seed = seed;
+        random = new Random(seed);
+        mean = AutoPilot.DEFAULT_WEIGHTS.clone();
+        deviation = new double[AutoPilot.FEATURE_COUNT];
+        Arrays.fill(deviation, INITIAL_DEVIATION);
+        bestWeights = mean.clone();
+        bestFitness = Double.NaN;
+    }
+
+    /**
+     * Plays one game with the given weights, without a view.
+     *
+     * @param weights  weights for the AutoPilot
+     * @param seed     seed for the pieces
+     * @param pieceCap pieces after which the game is stopped
+     * @return the game's score
+     */
+    public static int playGame(double[] weights, long seed, int pieceCap) {
+        TetrisModel model = new TetrisModel();
+        model.setSeed(seed);
+        model.setPreviewSize(0); //the AutoPilot doesn't look at it
+        model.setPilot(new AutoPilot(weights));
+        model.setAutoPilotMode();
+        model.startGame();
+        while (model.isGameOn() && model.getCount() < pieceCap) model.modelTick(TetrisModel.MoveType.DOWN);
+        return model.getScore();
+    }
+
+    /**
+     * Runs one generation, playing its games on the given pool, and refits the distribution.
+     *
+     * @param pool the threads to play on
+     * @throws InterruptedException if interrupted while waiting for the games
+     */
+    public void runGeneration(ExecutorService pool) throws InterruptedException {
+        TetrisPiece.getPieces(); //build the shared pieces before any game thread asks for them
+
+        double[][] candidates = new double[populationSize][];
+        candidates[0] = mean.clone();
+        for (int c = 1; c < populationSize; c++) {
+            candidates[c] = new double[AutoPilot.FEATURE_COUNT];
+            for (int i = 0; i < AutoPilot.FEATURE_COUNT; i++) {
+                candidates[c][i] = mean[i] + deviation[i] * random.nextGaussian();
+            }
+        }
+
+        //one task per game, with the same seeds for every candidate
+        long firstSeed = seed + (long) generation * games;
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (double[] candidate : candidates) {
+            for (int g = 0; g < games; g++) {
+                long gameSeed = firstSeed + g;
+                tasks.add(() -> playGame(candidate, gameSeed, pieceCap));
+            }
+        }
+        List<Future<Integer>> results = pool.invokeAll(tasks);
+        double[] fitness = new double[populationSize];
+        try {
+            for (int t = 0; t < results.size(); t++) fitness[t / games] += results.get(t).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (int c = 0; c < populationSize; c++) fitness[c] /= games;
+
+        //sort the candidates best first (ties keep their order) and refit to the elite
+        Integer[] order = new Integer[populationSize];
+        for (int c = 0; c < populationSize; c++) order[c] = c;
+        Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+        double noise = Math.max(INITIAL_NOISE - generation * NOISE_STEP, 0);
+        for (int i = 0; i < AutoPilot.FEATURE_COUNT; i++) {
+            double sum = 0;
+            for (int e = 0; e < eliteSize; e++) sum += candidates[order[e]][i];
+            double eliteMean = sum / eliteSize;
+            double variance = 0;
+            for (int e = 0; e < eliteSize; e++) {
+                double d = candidates[order[e]][i] - eliteMean;
+                variance += d * d;
+            }
+            mean[i] = eliteMean;
+            deviation[i] = Math.sqrt(variance / eliteSize + noise);
+        }
+        bestWeights = candidates[order[0]];
+        bestFitness = fitness[order[0]];
+        generation++;
+    }
+
+    /**
+     * Runs generations on a pool of the given number of threads, saving the checkpoint and the
+     * best weights (if files are given) after each one.
+     *
+     * @param generations number of generations to run
+     * @param threads     number of games to play at once
+     * @param checkpoint  file to save the tuner to, or null
+     * @param weightsFile file to save the best weights to, or null
+     * @param progress    called with the tuner after each generation (once it is saved), or null
+     * @throws IOException          if a file can't be written
+     * @throws InterruptedException if interrupted while waiting for the games
+     */
+    public void run(int generations, int threads, File checkpoint, File weightsFile, Consumer<WeightTuner> progress)
+            throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < generations; i++) {
+                runGeneration(pool);
+                if (checkpoint != null) saveCheckpoint(checkpoint);
+                if (weightsFile != null) AutoPilot.saveWeights(bestWeights, weightsFile);
+                if (progress != null) progress.accept(this);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Saves the tuner to a file. The file is replaced in one step, so an interrupted save
+     * leaves the previous checkpoint intact.
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void saveCheckpoint(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temp))) {
+            out.writeObject(this);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a tuner saved by saveCheckpoint(), ready to carry on where it stopped.
+     *
+     * @param file the file to read
+     * @return the tuner
+     * @throws IOException if the file can't be read or doesn't hold a tuner
+     */
+    public static WeightTuner loadCheckpoint(File file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            return (WeightTuner) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a tuner checkpoint: " + file, e);
+        }
+    }
+
+    /**
+     * @return number of generations finished
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the mean of the distribution the next candidates are drawn from
+     */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * @return the best candidate of the latest generation (the starting weights before the first)
+     */
+    public double[] getBestWeights() {
+        return bestWeights.clone();
+    }
+
+    /**
+     * @return the average score of the best candidate of the latest generation, or NaN before the first
+     */
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    /**
+     * Tunes from the command line, resuming from the checkpoint file if it exists.
+     * Arguments (all optional): generations, population size, games per candidate,
+     * piece cap, checkpoint file, weights file.
+     *
+     * @param args the arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int generations = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int populationSize = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        int games = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+        int pieceCap = (args.length > 3) ? Integer.parseInt(args[3]) : 5000;
+        File checkpoint = new File((args.length > 4) ? args[4] : "tuner.ser");
+        File weightsFile = new File((args.length > 5) ? args[5] : "weights.txt");
+
+        WeightTuner tuner;
+        if (checkpoint.exists()) {
+            tuner = loadCheckpoint(checkpoint);
+            System.out.println("Resuming from generation " + tuner.getGeneration() + " of " + checkpoint);
+        } else {
+            tuner = new WeightTuner(populationSize, games, pieceCap, System.nanoTime());
+        }
+        long[] last = {System.nanoTime()}; //end of the previous generation
+        tuner.run(generations, Runtime.getRuntime().availableProcessors(), checkpoint, weightsFile, t -> {
+            long now = System.nanoTime();
+            System.out.printf("generation %d: best %.1f in %.1f s, weights %s%n", t.getGeneration(), t.getBestFitness(),
+                    (now - last[0]) / 1e9, Arrays.toString(t.getBestWeights()));
+            last[0] = now;
+        });
+    }
+}